@@ -0,0 +1,59 @@
+package com.campsite.booking.dto;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.stream.Collectors;
+
+/**
+ * Jackson (de)serialization of the request and response bodies, the mapper is configured like the Spring Boot one.
+ */
+@State(Scope.Benchmark)
+public class DtoSerializationBenchmark {
+    private ObjectMapper mapper;
+    private BookingRequest bookingRequest;
+    private String bookingRequestJson;
+    private AvailabilityQueryResponse availabilityResponse;
+    private String availabilityResponseJson;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        mapper = Jackson2ObjectMapperBuilder.json()
+            .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        bookingRequest = new BookingRequest("Full Name", "email@gmail.com", tomorrow, tomorrow.plusDays(2), 1L);
+        bookingRequestJson = mapper.writeValueAsString(bookingRequest);
+        availabilityResponse = new AvailabilityQueryResponse(1L,
+                                                             tomorrow.datesUntil(tomorrow.plusMonths(1)).collect(Collectors.toList()));
+        availabilityResponseJson = mapper.writeValueAsString(availabilityResponse);
+    }
+
+    @Benchmark
+    public String serializeBookingRequest() throws JsonProcessingException {
+        return mapper.writeValueAsString(bookingRequest);
+    }
+
+    @Benchmark
+    public BookingRequest deserializeBookingRequest() throws JsonProcessingException {
+        return mapper.readValue(bookingRequestJson, BookingRequest.class);
+    }
+
+    @Benchmark
+    public String serializeAvailabilityResponse() throws JsonProcessingException {
+        return mapper.writeValueAsString(availabilityResponse);
+    }
+
+    @Benchmark
+    public AvailabilityQueryResponse deserializeAvailabilityResponse() throws JsonProcessingException {
+        return mapper.readValue(availabilityResponseJson, AvailabilityQueryResponse.class);
+    }
+}
@@ -0,0 +1,99 @@
+package com.campsite.booking.repository;
+
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.entity.BookingDate;
+import com.campsite.booking.entity.Site;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the dates of a booking by saveAll(one INSERT per date) and by insertAll(one multi-row INSERT),
+ * and a whole new booking by save + insertAll(two statements) and by insertBooking(one statement).
+ * Each write runs in its own transaction which is rolled back, so the table does not grow and no date conflicts.
+ * It needs a running Postgres, see {@link PostgresBenchmarkSupport}.
+ */
+@State(Scope.Benchmark)
+public class BookingDateInsertBenchmark {
+    @Param({"1", "3"})
+    private int nights;
+
+    private PostgresBenchmarkSupport support;
+    private BookingRepository bookingRepository;
+    private BookingDateRepository bookingDateRepository;
+    private TransactionalOperator transactionalOperator;
+    private Booking booking;
+
+    @Setup
+    public void setUp() {
+        support = new PostgresBenchmarkSupport();
+        bookingRepository = support.bookingRepository();
+        bookingDateRepository = support.bookingDateRepository();
+        transactionalOperator = support.transactionalOperator();
+        LocalDate start = LocalDate.now().plusDays(1);
+        booking = support.bookingRepository()
+            .save(new Booking("benchmark", "benchmark@campsite", Site.DEFAULT_SITE_ID, UUID.randomUUID(), start, start.plusDays(nights - 1)))
+            .block();
+    }
+
+    @TearDown
+    public void tearDown() {
+        support.bookingRepository().deleteBookingByBookingId(booking.getBookingId()).block();
+        support.close();
+    }
+
+    @Benchmark
+    public Object saveAll() {
+        return rolledBack(bookingDateRepository.saveAll(getBookingDates()).then());
+    }
+
+    @Benchmark
+    public Object insertAll() {
+        return rolledBack(bookingDateRepository.insertAll(getBookingDates()));
+    }
+
+    @Benchmark
+    public Object saveBookingThenDates() {
+        return rolledBack(bookingRepository.save(newBooking())
+                              .flatMap(saved -> bookingDateRepository.insertAll(getBookingDates(saved))));
+    }
+
+    @Benchmark
+    public Object insertBooking() {
+        return rolledBack(bookingDateRepository.insertBooking(newBooking()).then());
+    }
+
+    private Booking newBooking() {
+        return new Booking("benchmark", "benchmark@campsite", Site.DEFAULT_SITE_ID, UUID.randomUUID(), booking.getStart(), booking.getEnd());
+    }
+
+    //new entities every time, saveAll would update the dates which got an id by the previous call
+    private List<BookingDate> getBookingDates() {
+        return getBookingDates(booking);
+    }
+
+    private List<BookingDate> getBookingDates(final Booking booking) {
+        return booking.getStart().datesUntil(booking.getEnd().plusDays(1))
+            .map(d -> new BookingDate(booking.getId(), booking.getSiteId(), d))
+            .collect(Collectors.toList());
+    }
+
+    private Object rolledBack(Mono<Void> write) {
+        return transactionalOperator.execute(status -> {
+                status.setRollbackOnly();
+                return write;
+            })
+            .then()
+            .block();
+    }
+}
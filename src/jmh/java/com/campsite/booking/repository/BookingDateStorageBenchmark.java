@@ -0,0 +1,84 @@
+package com.campsite.booking.repository;
+
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.entity.BookingDate;
+import com.campsite.booking.entity.Site;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Books consecutive stays of the default site with the nightly and the range storage, each booking is committed.
+ * At the end of each trial the size of the storage table and its indexes is printed, then the bookings are deleted.
+ * The stays start in 2100 so they do not conflict with real bookings. It needs a running Postgres, see {@link PostgresBenchmarkSupport}.
+ */
+@State(Scope.Benchmark)
+public class BookingDateStorageBenchmark {
+    private static final LocalDate FIRST_NIGHT = LocalDate.of(2100, 1, 1);
+    private static final String NAME = "storage-benchmark";
+
+    @Param({"nightly", "range"})
+    private String mode;
+
+    @Param({"1", "3"})
+    private int nights;
+
+    private PostgresBenchmarkSupport support;
+    private BookingRepository bookingRepository;
+    private BookingDateStorage storage;
+    private TransactionalOperator transactionalOperator;
+    private long booked;
+
+    @Setup
+    public void setUp() {
+        support = new PostgresBenchmarkSupport();
+        bookingRepository = support.bookingRepository();
+        storage = support.bookingDateStorage(mode);
+        transactionalOperator = support.transactionalOperator();
+        booked = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        DatabaseClient databaseClient = support.databaseClient();
+        String table = "range".equals(mode) ? "booking_range" : "booking_date";
+        Map<String, Object> size = databaseClient
+            .sql(String.format("select pg_relation_size('%1$s') as table_bytes, pg_indexes_size('%1$s') as index_bytes", table))
+            .fetch()
+            .one()
+            .block();
+        System.out.printf("%n%s storage, %d night(s): %d bookings, table %s bytes, indexes %s bytes%n",
+                          mode, nights, booked, size.get("table_bytes"), size.get("index_bytes"));
+
+        databaseClient.sql("delete from booking where name = :name").bind("name", NAME).fetch().rowsUpdated().block();
+        databaseClient.sql(String.format("vacuum full %s", table)).then().block();
+        support.close();
+    }
+
+    @Benchmark
+    public UUID book() {
+        LocalDate start = FIRST_NIGHT.plusDays(booked++ * nights);
+        Booking booking = new Booking(NAME, "benchmark@campsite", Site.DEFAULT_SITE_ID, UUID.randomUUID(), start, start.plusDays(nights - 1));
+        return bookingRepository.save(booking)
+            .flatMap(saved -> storage.insert(getBookingDates(saved)).thenReturn(saved.getBookingId()))
+            .as(transactionalOperator::transactional)
+            .block();
+    }
+
+    private List<BookingDate> getBookingDates(Booking booking) {
+        return booking.getStart().datesUntil(booking.getEnd().plusDays(1))
+            .map(d -> new BookingDate(booking.getId(), booking.getSiteId(), d))
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,220 @@
+package com.campsite.booking.repository;
+
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.entity.BookingDate;
+import com.campsite.booking.entity.Site;
+import org.springframework.dao.DuplicateKeyException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Repository stubs backed by maps, they implement the repository methods the booking service calls.
+ * booking_date keeps the unique (booked_date, site_id) constraint so conflicts behave like the DB.
+ */
+public class InMemoryRepositories {
+    private final AtomicLong bookingIds = new AtomicLong();
+    private final AtomicLong bookingDateIds = new AtomicLong();
+    private final Map<UUID, Booking> bookings = new ConcurrentHashMap<>();
+    //keyed by (booked_date, site_id), like the unique constraint
+    private final ConcurrentSkipListMap<DateSiteKey, BookingDate> bookingDates = new ConcurrentSkipListMap<>();
+    private final List<Site> sites;
+    //the round trip of a booking insert, its dates are taken when it starts and it returns or fails when it ends
+    private final Duration writeLatency;
+
+    private final BookingRepository bookingRepository;
+    private final BookingDateRepository bookingDateRepository;
+    private final SiteRepository siteRepository;
+
+    public InMemoryRepositories(int siteCount) {
+        this(siteCount, Duration.ZERO);
+    }
+
+    public InMemoryRepositories(int siteCount, Duration writeLatency) {
+        this.writeLatency = writeLatency;
+        this.sites = LongStream.rangeClosed(1, siteCount).mapToObj(id -> new Site(id, "Site " + id)).collect(Collectors.toList());
+        this.bookingRepository = proxy(BookingRepository.class, this::bookingRepositoryMethod);
+        this.bookingDateRepository = proxy(BookingDateRepository.class, this::bookingDateRepositoryMethod);
+        this.siteRepository = proxy(SiteRepository.class, this::siteRepositoryMethod);
+    }
+
+    public BookingRepository bookingRepository() {
+        return bookingRepository;
+    }
+
+    public BookingDateRepository bookingDateRepository() {
+        return bookingDateRepository;
+    }
+
+    public SiteRepository siteRepository() {
+        return siteRepository;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object bookingRepositoryMethod(String method, Object[] args) {
+        switch (method) {
+            case "save":
+                Booking booking = (Booking) args[0];
+                if (booking.getId() == null) {
+                    booking.setId(bookingIds.incrementAndGet());
+                }
+                bookings.put(booking.getBookingId(), booking);
+                return Mono.just(booking);
+            case "saveAll":
+                return Flux.fromIterable((Iterable<Booking>) args[0])
+                    .flatMap(b -> (Mono<Booking>) bookingRepositoryMethod("save", new Object[] {b}));
+            case "findBookingByBookingId":
+            case "lockBookingByBookingId":
+                return Mono.justOrEmpty(bookings.get((UUID) args[0]));
+            case "deleteBookingByBookingId":
+                return Mono.fromRunnable(() -> {
+                    Booking deleted = bookings.remove((UUID) args[0]);
+                    if (deleted != null) {
+                        bookingDates.values().removeIf(d -> d.getBookingId().equals(deleted.getId()));
+                    }
+                });
+            default:
+                throw new UnsupportedOperationException(method);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object bookingDateRepositoryMethod(String method, Object[] args) {
+        switch (method) {
+            case "saveAll":
+                return Flux.defer(() -> Flux.fromIterable(insert((Iterable<BookingDate>) args[0])));
+            case "insertAll":
+                return Mono.fromRunnable(() -> insert((Iterable<BookingDate>) args[0]));
+            case "insertBooking":
+                Mono<Long> insertBooking = Mono.fromCallable(() -> insertBooking((Booking) args[0]));
+                return writeLatency.isZero() ? insertBooking : insertBooking.materialize().delayElement(writeLatency).dematerialize();
+            case "replace":
+                return Mono.fromRunnable(() -> replace((List<BookingDate>) args[0], (List<BookingDate>) args[1]));
+            case "findBookingDateByBookedDateBetweenOrderByBookedDateAsc":
+                return Flux.defer(() -> Flux.fromIterable(between((LocalDate) args[0], (LocalDate) args[1]).values()));
+            case "findBookingDateBySiteIdAndBookedDateBetweenOrderByBookedDateAsc":
+                return Flux.defer(() -> Flux.fromIterable(between((LocalDate) args[1], (LocalDate) args[2]).values())
+                    .filter(d -> d.getSiteId().equals(args[0])));
+            case "findBookingDateByBookingIdOrderByBookedDateAsc":
+                return Flux.defer(() -> Flux.fromStream(bookingDates.values().stream()
+                    .filter(d -> d.getBookingId().equals(args[0]))
+                    .sorted(Comparator.comparing(BookingDate::getBookedDate))));
+            case "deleteAllByBookingId":
+                return Mono.fromRunnable(() -> bookingDates.values().removeIf(d -> d.getBookingId().equals(args[0])));
+            default:
+                throw new UnsupportedOperationException(method);
+        }
+    }
+
+    private Object siteRepositoryMethod(String method, Object[] args) {
+        switch (method) {
+            case "findAll":
+                return Flux.fromIterable(sites);
+            case "existsById":
+                return Mono.just(sites.stream().anyMatch(s -> s.getId().equals(args[0])));
+            default:
+                throw new UnsupportedOperationException(method);
+        }
+    }
+
+    private synchronized List<BookingDate> insert(Iterable<BookingDate> dates) {
+        List<BookingDate> inserted = new ArrayList<>();
+        for (BookingDate date : dates) {
+            DateSiteKey key = new DateSiteKey(date.getBookedDate(), date.getSiteId());
+            if (bookingDates.containsKey(key)) {
+                inserted.forEach(d -> bookingDates.remove(new DateSiteKey(d.getBookedDate(), d.getSiteId())));
+                throw new DuplicateKeyException("duplicate key value violates unique constraint \"booking_date_booked_date_site\"");
+            }
+            date.setId(bookingDateIds.incrementAndGet());
+            bookingDates.put(key, date);
+            inserted.add(date);
+        }
+        return inserted;
+    }
+
+    //the booking is kept only when its dates are free, like the single statement rolls back as a whole
+    private synchronized Long insertBooking(Booking booking) {
+        booking.setId(bookingIds.incrementAndGet());
+        insert(booking.getStart().datesUntil(booking.getEnd().plusDays(1))
+                   .map(d -> new BookingDate(booking.getId(), booking.getSiteId(), d))
+                   .collect(Collectors.toList()));
+        bookings.put(booking.getBookingId(), booking);
+        return booking.getId();
+    }
+
+    private synchronized void replace(List<BookingDate> removed, List<BookingDate> added) {
+        removed.forEach(d -> bookingDates.remove(new DateSiteKey(d.getBookedDate(), d.getSiteId())));
+        try {
+            insert(added);
+        }
+        catch (DuplicateKeyException e) {
+            removed.forEach(d -> bookingDates.put(new DateSiteKey(d.getBookedDate(), d.getSiteId()), d));
+            throw e;
+        }
+    }
+
+    private Map<DateSiteKey, BookingDate> between(LocalDate start, LocalDate end) {
+        return bookingDates.subMap(new DateSiteKey(start, Long.MIN_VALUE), true, new DateSiteKey(end, Long.MAX_VALUE), true);
+    }
+
+    private interface Method {
+        Object invoke(String name, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> repository, Method method) {
+        InvocationHandler handler = (proxy, m, args) -> {
+            if (m.getDeclaringClass() == Object.class) {
+                switch (m.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return repository.getSimpleName() + " stub";
+                }
+            }
+            return method.invoke(m.getName(), args);
+        };
+        return repository.cast(Proxy.newProxyInstance(repository.getClassLoader(), new Class<?>[] {repository}, handler));
+    }
+
+    private static final class DateSiteKey implements Comparable<DateSiteKey> {
+        private final LocalDate date;
+        private final long siteId;
+
+        private DateSiteKey(LocalDate date, long siteId) {
+            this.date = date;
+            this.siteId = siteId;
+        }
+
+        @Override
+        public int compareTo(DateSiteKey other) {
+            int byDate = date.compareTo(other.date);
+            return byDate != 0 ? byDate : Long.compare(siteId, other.siteId);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof DateSiteKey && compareTo((DateSiteKey) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return date.hashCode() * 31 + Long.hashCode(siteId);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.campsite.booking.repository;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import org.flywaydb.core.Flyway;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.data.r2dbc.repository.support.R2dbcRepositoryFactory;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.connection.SingleConnectionFactory;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+/**
+ * Wiring of the repositories against a real Postgres for the DB benchmarks.
+ * The DB defaults to the development one of application.yml, override it by
+ * -Dbenchmark.db.host, -Dbenchmark.db.port, -Dbenchmark.db.name, -Dbenchmark.db.user and -Dbenchmark.db.password.
+ * Flyway migrates the schema before the benchmark starts.
+ * The single threaded benchmarks share one connection, the concurrent ones get a pool.
+ */
+public class PostgresBenchmarkSupport implements AutoCloseable {
+    private final ConnectionFactory connectionFactory;
+    private final R2dbcEntityTemplate template;
+    private final R2dbcRepositoryFactory repositoryFactory;
+
+    public PostgresBenchmarkSupport() {
+        this(1);
+    }
+
+    public PostgresBenchmarkSupport(final int connections) {
+        String host = System.getProperty("benchmark.db.host", "localhost");
+        String port = System.getProperty("benchmark.db.port", "5432");
+        String name = System.getProperty("benchmark.db.name", "postgres");
+        String user = System.getProperty("benchmark.db.user", "camp");
+        String password = System.getProperty("benchmark.db.password", "camp123");
+
+        Flyway.configure()
+            .dataSource(String.format("jdbc:postgresql://%s:%s/%s", host, port, name), user, password)
+            .schemas("camp")
+            .baselineOnMigrate(true)
+            .baselineVersion("1")
+            .load()
+            .migrate();
+
+        ConnectionFactoryOptions options = ConnectionFactoryOptions.parse(String.format("r2dbc:postgresql://%s:%s/%s", host, port, name))
+            .mutate()
+            .option(ConnectionFactoryOptions.USER, user)
+            .option(ConnectionFactoryOptions.PASSWORD, password)
+            .build();
+        if (connections == 1) {
+            //one connection avoids measuring the connection setup
+            SingleConnectionFactory singleConnectionFactory = new SingleConnectionFactory(ConnectionFactories.get(options));
+            singleConnectionFactory.setSuppressClose(true);
+            connectionFactory = singleConnectionFactory;
+        }
+        else {
+            ConnectionPool pool = new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options))
+                                                         .initialSize(connections)
+                                                         .maxSize(connections)
+                                                         .build());
+            pool.warmup().block();
+            connectionFactory = pool;
+        }
+        template = new R2dbcEntityTemplate(connectionFactory);
+        repositoryFactory = new R2dbcRepositoryFactory(template);
+    }
+
+    public DatabaseClient databaseClient() {
+        return template.getDatabaseClient();
+    }
+
+    public TransactionalOperator transactionalOperator() {
+        return TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+    }
+
+    public BookingRepository bookingRepository() {
+        return repositoryFactory.getRepository(BookingRepository.class);
+    }
+
+    public SiteRepository siteRepository() {
+        return repositoryFactory.getRepository(SiteRepository.class);
+    }
+
+    public BookingDateRepository bookingDateRepository() {
+        return repositoryFactory.getRepository(BookingDateRepository.class, new BookingDateBatchRepositoryImpl(databaseClient()));
+    }
+
+    public AdvisoryNightLocks advisoryNightLocks() {
+        return new AdvisoryNightLocks(databaseClient());
+    }
+
+    public BookingDateStorage bookingDateStorage(final String mode) {
+        return "range".equals(mode) ?
+            new RangeBookingDateStorage(databaseClient()) :
+            new NightlyBookingDateStorage(bookingDateRepository());
+    }
+
+    @Override
+    public void close() {
+        if (connectionFactory instanceof ConnectionPool) {
+            ((ConnectionPool) connectionFactory).dispose();
+        }
+        else {
+            ((SingleConnectionFactory) connectionFactory).destroy();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.dto.AvailabilityQueryResponse;
+import com.campsite.booking.dto.BookingRequest;
+import com.campsite.booking.dto.DeletionResponse;
+import com.campsite.booking.entity.BookingDate;
+import com.campsite.booking.entity.Site;
+import com.campsite.booking.repository.InMemoryRepositories;
+import com.campsite.booking.repository.NightlyBookingDateStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Hot paths of the booking service, the repositories are in-memory stubs so only the service code is measured.
+ */
+@State(Scope.Benchmark)
+public class BookingServiceBenchmark {
+    private static final int SITES = 500;
+
+    private BookingService service;
+    private LocalDate start;
+    private LocalDate end;
+    private List<BookingDate> bookedDates;
+    private final AtomicLong nextSite = new AtomicLong();
+
+    @Setup
+    public void setUp() {
+        InMemoryRepositories repositories = new InMemoryRepositories(SITES);
+        AvailabilityChangeFeed changeFeed = new AvailabilityChangeFeed(256);
+        NightlyBookingDateStorage bookingDateStorage = new NightlyBookingDateStorage(repositories.bookingDateRepository());
+        AvailabilityIndex availabilityIndex = new AvailabilityIndex(repositories.siteRepository(),
+                                                                    bookingDateStorage,
+                                                                    changeFeed,
+                                                                    128,
+                                                                    false);
+        availabilityIndex.rebuild().block();
+        service = new BookingService(repositories.bookingRepository(),
+                                     bookingDateStorage,
+                                     repositories.siteRepository(),
+                                     availabilityIndex,
+                                     new BookingWriter(repositories.bookingRepository(),
+                                                       bookingDateStorage,
+                                                       availabilityIndex,
+                                                       Optional.empty(),
+                                                       Optional.empty()),
+                                     changeFeed,
+                                     new BookingMetrics(new SimpleMeterRegistry(), availabilityIndex),
+                                     new IdempotencyCache(Duration.ofHours(24), 100_000),
+                                     new BookingCache(repositories.bookingRepository(), bookingDateStorage, 10_000, Duration.ofMinutes(10)),
+                                     new DateHolds(Duration.ofSeconds(60), 10_000),
+                                     new DateSequencer(1024));
+
+        start = LocalDate.now().plusDays(1);
+        end = LocalDate.now().plusMonths(1);
+        //every other day of the month is booked
+        bookedDates = start.datesUntil(end.plusDays(1), Period.ofDays(2))
+            .map(d -> new BookingDate(1L, Site.DEFAULT_SITE_ID, d))
+            .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public AvailabilityQueryResponse getAvailabilityQueryResponse() {
+        return service.getAvailabilityQueryResponse(Site.DEFAULT_SITE_ID, start, end, bookedDates);
+    }
+
+    @Benchmark
+    public AvailabilityQueryResponse getAvailabilityFromIndex() {
+        return service.getAvailability(Site.DEFAULT_SITE_ID, start, end).block();
+    }
+
+    @Benchmark
+    public List<BookingDate> getBookingDates() {
+        return BookingService.getBookingDates(1L, Site.DEFAULT_SITE_ID, start, start.plusDays(2));
+    }
+
+    @Benchmark
+    public LocalDate validateBookingDates() {
+        service.validateBookingDates(start, start.plusDays(2));
+        return start;
+    }
+
+    //books 3 nights on the next site and cancels the booking, so the data set stays the same size
+    @Benchmark
+    public DeletionResponse bookThenCancel() {
+        long siteId = nextSite.getAndIncrement() % SITES + 1;
+        BookingRequest request = new BookingRequest("name", "e@e", start, start.plusDays(2), siteId);
+        return service.book(Mono.just(request))
+            .flatMap(response -> service.delete(response.getBookingId()))
+            .block();
+    }
+}
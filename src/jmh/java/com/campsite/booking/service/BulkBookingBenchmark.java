@@ -0,0 +1,96 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.dto.BookingRequest;
+import com.campsite.booking.dto.BulkBookingResult;
+import com.campsite.booking.repository.InMemoryRepositories;
+import com.campsite.booking.repository.NightlyBookingDateStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Validation;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Bookings per second of a bulk request against the same bookings posted one by one, the scores are per booking.
+ * The repositories are in-memory stubs, the bookings are cancelled after each invocation so the data set stays the same size.
+ */
+@State(Scope.Benchmark)
+public class BulkBookingBenchmark {
+    private static final int SITES = 500;
+    private static final int BOOKINGS = 200;
+
+    private BookingService service;
+    private BulkBookingService bulkService;
+    private List<BookingRequest> requests;
+
+    @Setup
+    public void setUp() {
+        InMemoryRepositories repositories = new InMemoryRepositories(SITES);
+        AvailabilityChangeFeed changeFeed = new AvailabilityChangeFeed(256);
+        NightlyBookingDateStorage bookingDateStorage = new NightlyBookingDateStorage(repositories.bookingDateRepository());
+        AvailabilityIndex availabilityIndex = new AvailabilityIndex(repositories.siteRepository(),
+                                                                    bookingDateStorage,
+                                                                    changeFeed,
+                                                                    128,
+                                                                    false);
+        availabilityIndex.rebuild().block();
+        BookingWriter bookingWriter = new BookingWriter(repositories.bookingRepository(), bookingDateStorage, availabilityIndex, Optional.empty(), Optional.empty());
+        BookingMetrics metrics = new BookingMetrics(new SimpleMeterRegistry(), availabilityIndex);
+        service = new BookingService(repositories.bookingRepository(),
+                                     bookingDateStorage,
+                                     repositories.siteRepository(),
+                                     availabilityIndex,
+                                     bookingWriter,
+                                     changeFeed,
+                                     metrics,
+                                     new IdempotencyCache(Duration.ofHours(24), 100_000),
+                                     new BookingCache(repositories.bookingRepository(), bookingDateStorage, 10_000, Duration.ofMinutes(10)),
+                                     new DateHolds(Duration.ofSeconds(60), 10_000),
+                                     new DateSequencer(1024));
+        bulkService = new BulkBookingService(service,
+                                             bookingWriter,
+                                             metrics,
+                                             Validation.buildDefaultValidatorFactory().getValidator(),
+                                             50,
+                                             Duration.ofMillis(100));
+
+        LocalDate start = LocalDate.now().plusDays(1);
+        requests = LongStream.rangeClosed(1, BOOKINGS)
+            .mapToObj(i -> new BookingRequest("name", "e@e", start, start.plusDays(2), (i - 1) % SITES + 1))
+            .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BOOKINGS)
+    public List<UUID> bookOneByOne() {
+        return cancel(Flux.fromIterable(requests)
+                          .concatMap(request -> service.book(Mono.just(request)))
+                          .map(response -> response.getBookingId()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BOOKINGS)
+    public List<UUID> bookBulk() {
+        return cancel(bulkService.book(Flux.fromIterable(requests))
+                          .map(BulkBookingResult::getBookingId));
+    }
+
+    private List<UUID> cancel(final Flux<UUID> bookingIds) {
+        return bookingIds
+            .concatMap(id -> service.delete(id).thenReturn(id))
+            .collectList()
+            .block();
+    }
+}
@@ -0,0 +1,101 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.dto.BookingRequest;
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.exception.BookingConflictException;
+import com.campsite.booking.repository.InMemoryRepositories;
+import com.campsite.booking.repository.NightlyBookingDateStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.dao.DataIntegrityViolationException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bookings of the same few sites and nights by 16 writers, each insert takes 1ms like a DB round trip.
+ * direct: the checked booking is inserted right away, the writers which lose a night abort in the DB.
+ * sequenced: the writes sharing a night wait for each other, the losers are rejected against the index before any write.
+ * The counters are per second: booked, rejected before the write, and aborted by the unique constraint.
+ * The bookings are cancelled once written, so the nights are contended for the whole run.
+ */
+@State(Scope.Benchmark)
+@Threads(16)
+public class ContendedBookingBenchmark {
+    private static final int SITES = 4;
+    private static final int DAYS = 7;
+
+    @Param({"direct", "sequenced"})
+    private String writes;
+
+    private BookingService service;
+    private BookingWriter bookingWriter;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+        public long booked;
+        public long rejected;
+        public long aborted;
+    }
+
+    @Setup
+    public void setUp() {
+        InMemoryRepositories repositories = new InMemoryRepositories(SITES, Duration.ofMillis(1));
+        AvailabilityChangeFeed changeFeed = new AvailabilityChangeFeed(256);
+        NightlyBookingDateStorage bookingDateStorage = new NightlyBookingDateStorage(repositories.bookingDateRepository());
+        AvailabilityIndex availabilityIndex = new AvailabilityIndex(repositories.siteRepository(),
+                                                                    bookingDateStorage,
+                                                                    changeFeed,
+                                                                    128,
+                                                                    false);
+        availabilityIndex.rebuild().block();
+        bookingWriter = new BookingWriter(repositories.bookingRepository(), bookingDateStorage, availabilityIndex, Optional.empty(), Optional.empty());
+        service = new BookingService(repositories.bookingRepository(),
+                                     bookingDateStorage,
+                                     repositories.siteRepository(),
+                                     availabilityIndex,
+                                     bookingWriter,
+                                     changeFeed,
+                                     new BookingMetrics(new SimpleMeterRegistry(), availabilityIndex),
+                                     new IdempotencyCache(Duration.ofHours(24), 100_000),
+                                     new BookingCache(repositories.bookingRepository(), bookingDateStorage, 10_000, Duration.ofMinutes(10)),
+                                     new DateHolds(Duration.ofSeconds(60), 10_000),
+                                     new DateSequencer(1024));
+    }
+
+    //1 to 3 nights of a random site in the next week
+    @Benchmark
+    public UUID book(Outcomes outcomes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LocalDate start = LocalDate.now().plusDays(1 + random.nextInt(DAYS));
+        BookingRequest request = new BookingRequest("name", "e@e", start, start.plusDays(random.nextInt(3)), 1L + random.nextInt(SITES));
+        return service.checkBooking(request)
+            .flatMap(this::insert)
+            .flatMap(bookingId -> service.delete(bookingId).thenReturn(bookingId))
+            .doOnNext(bookingId -> outcomes.booked++)
+            .onErrorResume(BookingConflictException.class, e -> {
+                outcomes.rejected++;
+                return Mono.empty();
+            })
+            .onErrorResume(DataIntegrityViolationException.class, e -> {
+                outcomes.aborted++;
+                return Mono.empty();
+            })
+            .block();
+    }
+
+    private Mono<UUID> insert(final Booking booking) {
+        return "sequenced".equals(writes) ? service.sequencedInsert(booking, null) : bookingWriter.insert(booking);
+    }
+}
@@ -0,0 +1,109 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.dto.Stay;
+import com.campsite.booking.dto.StaySearchResponse;
+import com.campsite.booking.entity.BookingDate;
+import com.campsite.booking.repository.InMemoryRepositories;
+import com.campsite.booking.repository.NightlyBookingDateStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * The search of 3 free nights among 500 sites where every third night is booked, only the last site has one stay at the end of the range.
+ * wordSearch is the search on the words of the index, limited to the earliest stay or finding all of them.
+ * listScan is what the clients did before: the available dates of every site, scanned for consecutive nights.
+ */
+@State(Scope.Benchmark)
+public class StaySearchBenchmark {
+    private static final int SITES = 500;
+    private static final int NIGHTS = 3;
+
+    @Param({"32", "128"})
+    private int rangeDays;
+
+    private BookingService service;
+    private AvailabilityIndex availabilityIndex;
+    private LocalDate start;
+    private LocalDate end;
+
+    @Setup
+    public void setUp() {
+        InMemoryRepositories repositories = new InMemoryRepositories(SITES);
+        AvailabilityChangeFeed changeFeed = new AvailabilityChangeFeed(256);
+        NightlyBookingDateStorage bookingDateStorage = new NightlyBookingDateStorage(repositories.bookingDateRepository());
+        availabilityIndex = new AvailabilityIndex(repositories.siteRepository(), bookingDateStorage, changeFeed, 256, false);
+        availabilityIndex.rebuild().block();
+        service = new BookingService(repositories.bookingRepository(),
+                                     bookingDateStorage,
+                                     repositories.siteRepository(),
+                                     availabilityIndex,
+                                     new BookingWriter(repositories.bookingRepository(),
+                                                       bookingDateStorage,
+                                                       availabilityIndex,
+                                                       Optional.empty(),
+                                                       Optional.empty()),
+                                     changeFeed,
+                                     new BookingMetrics(new SimpleMeterRegistry(), availabilityIndex),
+                                     new IdempotencyCache(Duration.ofHours(24), 100_000),
+                                     new BookingCache(repositories.bookingRepository(), bookingDateStorage, 10_000, Duration.ofMinutes(10)),
+                                     new DateHolds(Duration.ofSeconds(60), 10_000),
+                                     new DateSequencer(1024));
+
+        start = LocalDate.now().plusDays(1);
+        end = start.plusDays(rangeDays - 1);
+        //the last site is free on the last 3 nights of the range
+        List<BookingDate> bookedDates = LongStream.rangeClosed(1, SITES)
+            .boxed()
+            .flatMap(siteId -> start.datesUntil(end.plusDays(1))
+                .filter(d -> (d.toEpochDay() + siteId) % 3 == 0)
+                .filter(d -> siteId != SITES || d.isBefore(end.minusDays(NIGHTS + 1)))
+                .map(d -> new BookingDate(1L, siteId, d)))
+            .collect(Collectors.toList());
+        availabilityIndex.apply(List.of(), bookedDates);
+    }
+
+    @Benchmark
+    public List<Stay> wordSearchEarliest() {
+        return availabilityIndex.findStays(null, start, end, NIGHTS, 1, (site, stayStart) -> true);
+    }
+
+    @Benchmark
+    public List<Stay> wordSearchAll() {
+        return availabilityIndex.findStays(null, start, end, NIGHTS, Integer.MAX_VALUE, (site, stayStart) -> true);
+    }
+
+    //the whole service call: the range of the queries is capped to a month
+    @Benchmark
+    public StaySearchResponse serviceSearchEarliest() {
+        return service.findStays(null, NIGHTS, start, end, 1).block();
+    }
+
+    @Benchmark
+    public List<Stay> listScan() {
+        List<Stay> res = new ArrayList<>();
+        for (long siteId = 1; siteId <= SITES; siteId++) {
+            List<LocalDate> available = availabilityIndex.getAvailableDates(siteId, start, end);
+            int run = 0;
+            for (int i = 0; i < available.size(); i++) {
+                run = i > 0 && available.get(i - 1).plusDays(1).equals(available.get(i)) ? run + 1 : 1;
+                if (run >= NIGHTS) {
+                    LocalDate stayStart = available.get(i).minusDays(NIGHTS - 1);
+                    res.add(new Stay(siteId, stayStart, available.get(i)));
+                }
+            }
+        }
+        return res;
+    }
+}
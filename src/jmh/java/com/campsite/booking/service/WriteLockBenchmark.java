@@ -0,0 +1,106 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.entity.Site;
+import com.campsite.booking.repository.BookingRepository;
+import com.campsite.booking.repository.NightlyBookingDateStorage;
+import com.campsite.booking.repository.PostgresBenchmarkSupport;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * The same 2 nights booked by 1, 4 or 16 concurrent writers, each on its own connection, the score is per round of writers.
+ * unique: the booking is inserted right away, the writers which lose abort on the unique constraint.
+ * advisory: the nights are locked first, the writers which lose find them booked by a query and insert nothing.
+ * The counters are per second: booked, rejected by the query, and aborted by the constraint. The booking of a round is
+ * cancelled once the round ends, so every round contends for the same nights.
+ * It needs a running Postgres, see {@link PostgresBenchmarkSupport}.
+ */
+@State(Scope.Benchmark)
+public class WriteLockBenchmark {
+    @Param({"1", "4", "16"})
+    private int writers;
+
+    @Param({"unique", "advisory"})
+    private String writeLock;
+
+    private PostgresBenchmarkSupport support;
+    private BookingRepository bookingRepository;
+    private BookingWriter bookingWriter;
+    private TransactionalOperator transactionalOperator;
+    private LocalDate start;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+        public long booked;
+        public long rejected;
+        public long aborted;
+    }
+
+    @Setup
+    public void setUp() {
+        support = new PostgresBenchmarkSupport(writers);
+        bookingRepository = support.bookingRepository();
+        NightlyBookingDateStorage bookingDateStorage = new NightlyBookingDateStorage(support.bookingDateRepository());
+        AvailabilityIndex availabilityIndex = new AvailabilityIndex(support.siteRepository(),
+                                                                    bookingDateStorage,
+                                                                    new AvailabilityChangeFeed(256),
+                                                                    128,
+                                                                    false);
+        bookingWriter = new BookingWriter(bookingRepository,
+                                          bookingDateStorage,
+                                          availabilityIndex,
+                                          "advisory".equals(writeLock) ? Optional.of(support.advisoryNightLocks()) : Optional.empty(),
+                                          Optional.empty());
+        transactionalOperator = support.transactionalOperator();
+        start = LocalDate.now().plusDays(1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        support.close();
+    }
+
+    @Benchmark
+    public List<UUID> book(Outcomes outcomes) {
+        List<UUID> booked = Flux.range(0, writers)
+            .flatMap(writer -> insert(new Booking("benchmark", "benchmark@campsite", Site.DEFAULT_SITE_ID, UUID.randomUUID(), start, start.plusDays(1)))
+                         .doOnSuccess(bookingId -> {
+                             if (bookingId == null) {
+                                 outcomes.rejected++;
+                             }
+                         })
+                         .onErrorResume(DataIntegrityViolationException.class, e -> {
+                             outcomes.aborted++;
+                             return Mono.empty();
+                         }),
+                     writers)
+            .collectList()
+            .block();
+        outcomes.booked += booked.size();
+        Flux.fromIterable(booked).concatMap(bookingRepository::deleteBookingByBookingId).blockLast();
+        return booked;
+    }
+
+    //the locks are transaction-scoped, the locked insert runs in a transaction like the @Transactional one of the service
+    private Mono<UUID> insert(final Booking booking) {
+        return bookingWriter.locksNights() ?
+            transactionalOperator.transactional(bookingWriter.insertLocked(booking)) :
+            bookingWriter.insert(booking);
+    }
+}
@@ -0,0 +1,142 @@
+package com.campsite.booking.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latencies and outcomes of a run by operation. A latency is taken from the time the request was due to be sent,
+ * not from the time it was sent: a request which waited for the generator or for a connection counts the wait,
+ * so a stalled target shows in the percentiles instead of slowing the load down(coordinated omission).
+ */
+public class LatencyStats {
+    //the percentile distributions are written in milliseconds
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public enum Outcome {
+        //2xx
+        OK,
+        //409, the nights were booked by another request
+        CONFLICT,
+        //429, shed by the concurrency limiter
+        REJECTED,
+        //the other 4xx, like a booking cancelled by another request
+        CLIENT_ERROR,
+        //5xx, timeouts and connection failures
+        ERROR
+    }
+
+    private final Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+    private final Map<Operation, Map<Outcome, LongAdder>> outcomes = new EnumMap<>(Operation.class);
+    private final long startNanos = System.nanoTime();
+    //the throughput is over the time the responses arrived, the responses which came in after the last request was sent included
+    private final AtomicLong lastRecordNanos = new AtomicLong(startNanos);
+
+    public LatencyStats() {
+        for (Operation operation : Operation.values()) {
+            histograms.put(operation, new ConcurrentHistogram(3));
+            final Map<Outcome, LongAdder> counts = new EnumMap<>(Outcome.class);
+            for (Outcome outcome : Outcome.values()) {
+                counts.put(outcome, new LongAdder());
+            }
+            outcomes.put(operation, counts);
+        }
+    }
+
+    public void record(final Operation operation, final long intendedStartNanos, final Outcome outcome) {
+        final long now = System.nanoTime();
+        histograms.get(operation).recordValue(Math.max(0, now - intendedStartNanos));
+        outcomes.get(operation).get(outcome).increment();
+        lastRecordNanos.accumulateAndGet(now, Math::max);
+    }
+
+    public static Outcome of(final int status) {
+        if (status >= 200 && status < 300) {
+            return Outcome.OK;
+        }
+        if (status == 409) {
+            return Outcome.CONFLICT;
+        }
+        if (status == 429) {
+            return Outcome.REJECTED;
+        }
+        return status >= 400 && status < 500 ? Outcome.CLIENT_ERROR : Outcome.ERROR;
+    }
+
+    //the summary table on the stream, and the summary with a percentile distribution(.hgrm) per operation in the directory
+    public void report(final LoadSettings settings, final PrintStream out) throws IOException {
+        final Path dir = settings.getReportDir();
+        Files.createDirectories(dir);
+        try (PrintStream summary = new PrintStream(Files.newOutputStream(dir.resolve("summary.txt")))) {
+            writeSummary(settings, summary);
+        }
+        writeSummary(settings, out);
+        for (Operation operation : Operation.values()) {
+            final Histogram histogram = histograms.get(operation);
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            try (PrintStream hgrm = new PrintStream(Files.newOutputStream(dir.resolve(operation.label() + ".hgrm")))) {
+                histogram.outputPercentileDistribution(hgrm, NANOS_PER_MILLI);
+            }
+        }
+        out.printf("Reports are written to %s%n", dir.toAbsolutePath());
+    }
+
+    private void writeSummary(final LoadSettings settings, final PrintStream out) {
+        final double seconds = (lastRecordNanos.get() - startNanos) / 1e9;
+        out.println(settings);
+        out.printf("%-13s %9s %8s %8s %9s %8s %8s %7s %9s %9s %9s %9s%n",
+                   "operation", "requests", "ok", "conflict", "rejected", "4xx", "errors", "error%", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)");
+        final Histogram all = new Histogram(3);
+        long requests = 0;
+        long errors = 0;
+        for (Operation operation : Operation.values()) {
+            final Histogram histogram = histograms.get(operation);
+            final Map<Outcome, LongAdder> counts = outcomes.get(operation);
+            all.add(histogram);
+            requests += histogram.getTotalCount();
+            errors += counts.get(Outcome.ERROR).sum();
+            writeRow(out, operation.label(), histogram, counts);
+        }
+        out.printf("%-13s %9d %8s %8s %9s %8s %8d %7s %9.3f %9.3f %9.3f %9.3f%n",
+                   "all", requests, "", "", "", "", errors, percent(errors, requests),
+                   millis(all, 50), millis(all, 99), millis(all, 99.9), all.getMaxValue() / NANOS_PER_MILLI);
+        out.printf("%.0f responses/s over %.1fs, %d requests/s scheduled%n", seconds > 0 ? requests / seconds : 0, seconds, settings.getRate());
+    }
+
+    private void writeRow(final PrintStream out, final String label, final Histogram histogram, final Map<Outcome, LongAdder> counts) {
+        final long requests = histogram.getTotalCount();
+        final long errors = counts.get(Outcome.ERROR).sum();
+        out.printf("%-13s %9d %8d %8d %9d %8d %8d %7s %9.3f %9.3f %9.3f %9.3f%n",
+                   label,
+                   requests,
+                   counts.get(Outcome.OK).sum(),
+                   counts.get(Outcome.CONFLICT).sum(),
+                   counts.get(Outcome.REJECTED).sum(),
+                   counts.get(Outcome.CLIENT_ERROR).sum(),
+                   errors,
+                   percent(errors, requests),
+                   millis(histogram, 50),
+                   millis(histogram, 99),
+                   millis(histogram, 99.9),
+                   histogram.getMaxValue() / NANOS_PER_MILLI);
+    }
+
+    private static String percent(final long part, final long total) {
+        return total == 0 ? "-" : String.format("%.2f", 100.0 * part / total);
+    }
+
+    private static double millis(final Histogram histogram, final double percentile) {
+        return histogram.getValueAtPercentile(percentile) / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,183 @@
+package com.campsite.booking.loadtest;
+
+import com.campsite.booking.dto.BookingRequest;
+import com.campsite.booking.dto.BookingResponse;
+import com.campsite.booking.dto.UpdateRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the requests of the mix at the target rate on one thread, each request is due at start + i / rate.
+ * The generator never waits for a response(open loop), a late request is sent as soon as the thread catches up
+ * and its latency still counts from when it was due. The responses are recorded on the event loops of the client.
+ * The requests still without a response once the drain after the run times out are recorded as errors,
+ * with their latency up to then. The bookings made by the run are updated and cancelled by the later requests,
+ * an update or cancel without a booking to take is sent as a booking instead.
+ */
+public class LoadGenerator {
+    private static final String API = "/booking/api/v1";
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final LoadSettings settings;
+    private final WebClient client;
+    //only used by the sending thread, so the same seed makes the same choices
+    private final SplittableRandom random;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    //the oldest bookings are updated and cancelled first, an updated booking goes back to the end
+    private final ConcurrentLinkedDeque<UUID> bookings = new ConcurrentLinkedDeque<>();
+    //a request is recorded by whoever removes it: its response, or the end of the drain
+    private final Set<Request> inFlight = ConcurrentHashMap.newKeySet();
+
+    public LoadGenerator(final String baseUrl, final LoadSettings settings) {
+        this.settings = settings;
+        this.random = new SplittableRandom(settings.getSeed());
+        final ConnectionProvider connections = ConnectionProvider.builder("loadtest")
+            .maxConnections(settings.getConnections())
+            .pendingAcquireMaxCount(-1)
+            .pendingAcquireTimeout(settings.getTimeout())
+            .build();
+        this.client = WebClient.builder()
+            .baseUrl(baseUrl)
+            .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+            .build();
+        final Map<Operation, Integer> mix = settings.getMix();
+        this.operations = mix.keySet().toArray(new Operation[0]);
+        this.cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += mix.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    //sends the requests due within the duration, then waits for their responses up to the timeout: the missing ones are errors
+    public void run(final Duration duration, final LatencyStats stats) {
+        final long rate = settings.getRate();
+        final long start = System.nanoTime();
+        final long end = start + duration.toNanos();
+        for (long i = 0; ; i++) {
+            final long due = start + i * NANOS_PER_SECOND / rate;
+            if (due >= end) {
+                break;
+            }
+            final long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            send(nextOperation(), due, stats);
+        }
+        final long drainDeadline = System.nanoTime() + settings.getTimeout().toNanos() + NANOS_PER_SECOND;
+        while (!inFlight.isEmpty() && System.nanoTime() < drainDeadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        for (Request request : inFlight) {
+            if (inFlight.remove(request)) {
+                stats.record(request.operation, request.due, LatencyStats.Outcome.ERROR);
+            }
+        }
+    }
+
+    private Operation nextOperation() {
+        final int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < operations.length; i++) {
+            if (pick < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        throw new IllegalStateException("The mix has no operation");
+    }
+
+    private void send(final Operation operation, final long due, final LatencyStats stats) {
+        final long siteId = 1 + random.nextInt(settings.getSites());
+        final LocalDate start = LocalDate.now().plusDays(1 + random.nextInt(28));
+        final LocalDate end = start.plusDays(random.nextInt(3));
+        final UUID bookingId = operation == Operation.UPDATE || operation == Operation.CANCEL ? bookings.pollFirst() : null;
+        final Operation sent = bookingId == null && operation != Operation.AVAILABILITY ? Operation.BOOK : operation;
+
+        final Request inFlightRequest = new Request(sent, due);
+        inFlight.add(inFlightRequest);
+        request(sent, siteId, start, end, bookingId)
+            .timeout(settings.getTimeout())
+            .subscribe(status -> {
+                           if (sent == Operation.UPDATE && status != HttpStatus.NOT_FOUND.value()) {
+                               bookings.offerLast(bookingId);
+                           }
+                           if (inFlight.remove(inFlightRequest)) {
+                               stats.record(sent, due, LatencyStats.of(status));
+                           }
+                       },
+                       e -> {
+                           if (inFlight.remove(inFlightRequest)) {
+                               stats.record(sent, due, LatencyStats.Outcome.ERROR);
+                           }
+                       });
+    }
+
+    private Mono<Integer> request(final Operation operation, final long siteId, final LocalDate start, final LocalDate end, final UUID bookingId) {
+        switch (operation) {
+            case AVAILABILITY:
+                return client.get()
+                    .uri(builder -> builder.path(API + "/availability")
+                        .queryParam("start", LocalDate.now().plusDays(1))
+                        .queryParam("end", LocalDate.now().plusMonths(1))
+                        .queryParam("site", siteId)
+                        .build())
+                    .exchangeToMono(LoadGenerator::status);
+            case BOOK:
+                return client.post()
+                    .uri(API + "/book")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(new BookingRequest("load test", "load@test", start, end, siteId))
+                    .exchangeToMono(response -> response.statusCode() == HttpStatus.CREATED ?
+                        response.bodyToMono(BookingResponse.class)
+                            .doOnNext(booking -> bookings.offerLast(booking.getBookingId()))
+                            .thenReturn(response.rawStatusCode()) :
+                        status(response));
+            case UPDATE:
+                return client.patch()
+                    .uri(API + "/update/{id}", bookingId)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(new UpdateRequest("load test", "load@test", start, end))
+                    .exchangeToMono(LoadGenerator::status);
+            case CANCEL:
+                return client.delete()
+                    .uri(API + "/cancel/{id}", bookingId)
+                    .exchangeToMono(LoadGenerator::status);
+            default:
+                throw new IllegalArgumentException(operation.name());
+        }
+    }
+
+    private static Mono<Integer> status(final ClientResponse response) {
+        return response.releaseBody().thenReturn(response.rawStatusCode());
+    }
+
+    //a sent request until it is recorded, equal only to itself
+    private static final class Request {
+        private final Operation operation;
+        private final long due;
+
+        private Request(Operation operation, long due) {
+            this.operation = operation;
+            this.due = due;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.campsite.booking.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The settings of a load test run, the loadtest.* system properties(`./gradlew loadTest -Ploadtest.rate=2000`):
+ * - target: in-memory(the application in this JVM on in-memory repositories), postgres(the application in this JVM on the
+ *   Postgres of spring.r2dbc, with `sites` sites) or the base URL of a running instance
+ * - rate: the requests per second, sent on schedule whatever the responses take(open loop)
+ * - warmup, duration: the run at the rate before the recording, and the recorded run
+ * - mix: the weights of the operations, like availability:70,book:15,update:5,cancel:10
+ * - sites: the sites the requests are spread over
+ * - connections, timeout: the HTTP connections to the target, and how long a response is waited for
+ * - write-latency: the round trip added to the booking inserts of the in-memory repositories
+ * - seed: the seed of the random requests, the same seed sends the same sequence of operations and dates
+ * - report-dir: where the reports are written
+ */
+public class LoadSettings {
+    private final String target;
+    private final int rate;
+    private final Duration warmup;
+    private final Duration duration;
+    private final Map<Operation, Integer> mix;
+    private final int sites;
+    private final int connections;
+    private final Duration timeout;
+    private final Duration writeLatency;
+    private final long seed;
+    private final Path reportDir;
+
+    private LoadSettings(String target, int rate, Duration warmup, Duration duration, Map<Operation, Integer> mix, int sites,
+                         int connections, Duration timeout, Duration writeLatency, long seed, Path reportDir) {
+        this.target = target;
+        this.rate = rate;
+        this.warmup = warmup;
+        this.duration = duration;
+        this.mix = mix;
+        this.sites = sites;
+        this.connections = connections;
+        this.timeout = timeout;
+        this.writeLatency = writeLatency;
+        this.seed = seed;
+        this.reportDir = reportDir;
+    }
+
+    public static LoadSettings fromSystemProperties() {
+        return new LoadSettings(property("target", "in-memory"),
+                                Integer.parseInt(property("rate", "2000")),
+                                DurationStyle.detectAndParse(property("warmup", "10s")),
+                                DurationStyle.detectAndParse(property("duration", "60s")),
+                                parseMix(property("mix", "availability:70,book:15,update:5,cancel:10")),
+                                Integer.parseInt(property("sites", "500")),
+                                Integer.parseInt(property("connections", "512")),
+                                DurationStyle.detectAndParse(property("timeout", "5s")),
+                                DurationStyle.detectAndParse(property("write-latency", "0ms")),
+                                Long.parseLong(property("seed", "42")),
+                                Path.of(property("report-dir", "build/reports/loadtest")));
+    }
+
+    private static String property(final String name, final String defaultValue) {
+        return System.getProperty("loadtest." + name, defaultValue);
+    }
+
+    private static Map<Operation, Integer> parseMix(final String mix) {
+        final Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            final String[] operationWithWeight = entry.trim().split(":");
+            if (operationWithWeight.length != 2) {
+                throw new IllegalArgumentException(String.format("The mix entry %s is not operation:weight", entry));
+            }
+            final int weight = Integer.parseInt(operationWithWeight[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException(String.format("The weight of %s is negative", operationWithWeight[0]));
+            }
+            weights.put(Operation.valueOf(operationWithWeight[0].trim().toUpperCase(Locale.ROOT)), weight);
+        }
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("The mix has no operation");
+        }
+        return weights;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public Duration getWarmup() {
+        return warmup;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public Map<Operation, Integer> getMix() {
+        return mix;
+    }
+
+    public int getSites() {
+        return sites;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public Duration getWriteLatency() {
+        return writeLatency;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public Path getReportDir() {
+        return reportDir;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("target=%s rate=%d/s warmup=%s duration=%s mix=%s sites=%d connections=%d timeout=%s write-latency=%s seed=%d",
+                             target, rate, warmup, duration, mix, sites, connections, timeout, writeLatency, seed);
+    }
+}
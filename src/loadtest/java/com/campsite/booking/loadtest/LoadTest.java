@@ -0,0 +1,107 @@
+package com.campsite.booking.loadtest;
+
+import com.campsite.booking.BookingApplication;
+import com.campsite.booking.repository.InMemoryRepositories;
+import com.campsite.booking.service.AvailabilityIndex;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import reactor.core.publisher.Mono;
+
+import javax.sql.DataSource;
+
+/**
+ * Load test of the REST endpoints, run by `./gradlew loadTest`, see {@link LoadSettings} for the settings.
+ * The target is warmed up at the rate, then the recorded run writes the latency percentiles and the error rate
+ * of every operation to the console and to the report directory(summary.txt, and a .hgrm percentile distribution per operation).
+ * The in-memory and postgres targets run the application in this JVM, so the generator and the application share the CPUs.
+ */
+public final class LoadTest {
+    //the application runs on the in-memory repositories, nothing connects to a DB
+    private static final String[] IN_MEMORY_EXCLUDES = {
+        "org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration",
+        "org.springframework.boot.autoconfigure.r2dbc.R2dbcTransactionManagerAutoConfiguration",
+        "org.springframework.boot.autoconfigure.data.r2dbc.R2dbcDataAutoConfiguration",
+        "org.springframework.boot.autoconfigure.data.r2dbc.R2dbcRepositoriesAutoConfiguration",
+        "org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration",
+        "org.springframework.boot.autoconfigure.flyway.FlywayAutoConfiguration"
+    };
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final LoadSettings settings = LoadSettings.fromSystemProperties();
+        System.out.println("Load test: " + settings);
+        ConfigurableApplicationContext application = null;
+        try {
+            String baseUrl = settings.getTarget();
+            if (settings.getTarget().equals("in-memory")) {
+                application = startInMemory(settings);
+            }
+            else if (settings.getTarget().equals("postgres")) {
+                application = startOnPostgres(settings);
+            }
+            if (application != null) {
+                baseUrl = "http://localhost:" + ((WebServerApplicationContext) application).getWebServer().getPort();
+            }
+
+            final LoadGenerator generator = new LoadGenerator(baseUrl, settings);
+            System.out.printf("Warming up %s for %s%n", baseUrl, settings.getWarmup());
+            generator.run(settings.getWarmup(), new LatencyStats());
+            System.out.printf("Recording for %s%n", settings.getDuration());
+            final LatencyStats stats = new LatencyStats();
+            generator.run(settings.getDuration(), stats);
+            stats.report(settings, System.out);
+        }
+        finally {
+            if (application != null) {
+                application.close();
+            }
+        }
+    }
+
+    //the repositories are replaced by the in-memory ones of the benchmarks, the transactions are not managed
+    private static ConfigurableApplicationContext startInMemory(final LoadSettings settings) {
+        final InMemoryRepositories repositories = new InMemoryRepositories(settings.getSites(), settings.getWriteLatency());
+        return new SpringApplicationBuilder(BookingApplication.class)
+            .properties("server.port=0",
+                        "management.health.r2dbc.enabled=false",
+                        "spring.autoconfigure.exclude=" + String.join(",", IN_MEMORY_EXCLUDES))
+            .initializers(context -> {
+                context.getBeanFactory().registerSingleton("bookingRepository", repositories.bookingRepository());
+                context.getBeanFactory().registerSingleton("bookingDateRepository", repositories.bookingDateRepository());
+                context.getBeanFactory().registerSingleton("siteRepository", repositories.siteRepository());
+                context.getBeanFactory().registerSingleton("connectionFactory", new InMemoryConnectionFactory());
+            })
+            .run();
+    }
+
+    //the Postgres of spring.r2dbc and spring.datasource(-Dspring.r2dbc.url=... to override), the missing sites are added
+    private static ConfigurableApplicationContext startOnPostgres(final LoadSettings settings) {
+        final ConfigurableApplicationContext application = new SpringApplicationBuilder(BookingApplication.class)
+            .properties("server.port=0")
+            .run();
+        new JdbcTemplate(application.getBean(DataSource.class))
+            .update("insert into site(name) select 'Site ' || n from generate_series(1, ?) as n on conflict (name) do nothing", settings.getSites());
+        application.getBean(AvailabilityIndex.class).rebuild().block();
+        return application;
+    }
+
+    //the health indicator of the pool wants a connection factory, there is no pool to report
+    private static final class InMemoryConnectionFactory implements ConnectionFactory {
+        @Override
+        public Mono<Connection> create() {
+            return Mono.error(new UnsupportedOperationException("The load test runs on in-memory repositories"));
+        }
+
+        @Override
+        public ConnectionFactoryMetadata getMetadata() {
+            return () -> "in-memory";
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.campsite.booking.loadtest;
+
+import java.util.Locale;
+
+/**
+ * The requests of the traffic mix.
+ */
+public enum Operation {
+    //GET /availability of a site for the month
+    AVAILABILITY,
+    //POST /book of 1 to 3 nights of a site in the month
+    BOOK,
+    //PATCH /update of a booking of the run to other nights
+    UPDATE,
+    //DELETE /cancel of a booking of the run
+    CANCEL;
+
+    public String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,100 @@
+package com.campsite.booking.config;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.spi.ConnectionFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Opens the initial connections of the R2DBC pool(spring.r2dbc.pool.initial-size) once the application has started,
+ * and reports the pool as the `connectionPool` health: DOWN until the pool is warm, with the pool usage as details.
+ * It is part of the readiness group, so no traffic is routed to the instance while the first requests would pay the connection setup.
+ * Once warm, it is OUT_OF_SERVICE while a pool is exhausted: all of its connections are acquired and more than
+ * `campsite.pool.max-pending-acquire` requests wait for one, so the instance takes no new traffic until the queue drains.
+ * With a read replica both pools are warmed up, the usage of the replica pool is in the replica detail.
+ */
+@Component
+@Slf4j
+public class ConnectionPoolHealthIndicator implements HealthIndicator {
+    private static final Duration FIRST_RETRY = Duration.ofSeconds(1);
+    private static final Duration MAX_RETRY = Duration.ofSeconds(30);
+
+    //by name, the primary first
+    private final Map<String, ConnectionPool> pools;
+    private final int maxPendingAcquire;
+    private volatile boolean warm;
+
+    public ConnectionPoolHealthIndicator(ConnectionFactory connectionFactory,
+                                         @Value("${campsite.pool.max-pending-acquire:20}") int maxPendingAcquire) {
+        this.pools = ReadWriteRoutingConnectionFactory.getPools(connectionFactory);
+        this.maxPendingAcquire = maxPendingAcquire;
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void warmUp() {
+        if (pools.isEmpty()) {
+            warm = true;
+            return;
+        }
+        Flux.fromIterable(pools.entrySet())
+            .flatMap(pool -> pool.getValue().warmup()
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, FIRST_RETRY)
+                               .maxBackoff(MAX_RETRY)
+                               .doBeforeRetry(signal -> log.warn("Failed to warm up the {} connection pool, retry #{}: {}",
+                                                                 pool.getKey(), signal.totalRetries() + 1, signal.failure().getMessage())))
+                .doOnNext(created -> log.info("The {} connection pool is warm, {} connections are opened", pool.getKey(), created)))
+            .then()
+            .doOnSuccess(v -> warm = true)
+            .subscribe();
+    }
+
+    @Override
+    public Health health() {
+        if (pools.isEmpty()) {
+            return Health.up().withDetail("pool", "disabled").build();
+        }
+        Health.Builder builder = warm ? Health.up() : Health.down().withDetail("reason", "warming up");
+        pools.forEach((name, pool) -> {
+            if (warm && isExhausted(pool)) {
+                builder.status(Status.OUT_OF_SERVICE).withDetail("reason", String.format("the %s pool is exhausted", name));
+            }
+            final Map<String, Object> details = getDetails(pool);
+            if (name.equals("primary")) {
+                builder.withDetails(details);
+            }
+            else {
+                builder.withDetail(name, details);
+            }
+        });
+        return builder.build();
+    }
+
+    private boolean isExhausted(final ConnectionPool pool) {
+        return pool.getMetrics()
+            .map(metrics -> metrics.acquiredSize() >= metrics.getMaxAllocatedSize() && metrics.pendingAcquireSize() > maxPendingAcquire)
+            .orElse(false);
+    }
+
+    private static Map<String, Object> getDetails(final ConnectionPool pool) {
+        final Map<String, Object> details = new LinkedHashMap<>();
+        pool.getMetrics().ifPresent(metrics -> {
+            details.put("acquired", metrics.acquiredSize());
+            details.put("idle", metrics.idleSize());
+            details.put("pendingAcquire", metrics.pendingAcquireSize());
+            details.put("maxSize", metrics.getMaxAllocatedSize());
+        });
+        return details;
+    }
+}
@@ -0,0 +1,67 @@
+package com.campsite.booking.config;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.r2dbc.ConnectionPoolMetrics;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcProperties;
+import org.springframework.boot.context.properties.PropertyMapper;
+import org.springframework.boot.r2dbc.ConnectionFactoryBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The read replica of `campsite.read-replica`: the connection factory of the application routes the reads marked
+ * as stale-tolerant to a pool of the replica, and everything else to the pool of spring.r2dbc.
+ * Both pools take the spring.r2dbc.pool settings. The R2DBC auto-configuration backs off, its pool is replaced by these.
+ * Their r2dbc.pool metrics are bound here, with a pool tag of primary or replica.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "campsite.read-replica.enabled", havingValue = "true")
+public class ReadReplicaConfig {
+
+    @Bean
+    public ReadWriteRoutingConnectionFactory connectionFactory(R2dbcProperties properties,
+                                                               @Value("${campsite.read-replica.url}") String replicaUrl,
+                                                               @Value("${campsite.read-replica.username:${spring.r2dbc.username:}}") String replicaUsername,
+                                                               @Value("${campsite.read-replica.password:${spring.r2dbc.password:}}") String replicaPassword) {
+        return new ReadWriteRoutingConnectionFactory(
+            createPool("primary", properties.getUrl(), properties.getUsername(), properties.getPassword(), properties.getPool()),
+            createPool("replica", replicaUrl, replicaUsername, replicaPassword, properties.getPool()));
+    }
+
+    //Boot binds the metrics of the pools it finds among the connection factory beans, the routing factory is not one of them.
+    //The name tag is the one Boot gives the pool of the connectionFactory bean
+    @Bean
+    public MeterBinder readReplicaPoolMetrics(ReadWriteRoutingConnectionFactory connectionFactory) {
+        return registry -> ReadWriteRoutingConnectionFactory.getPools(connectionFactory)
+            .forEach((name, pool) -> new ConnectionPoolMetrics(pool, "connectionFactory", Tags.of("pool", name)).bindTo(registry));
+    }
+
+    private static ConnectionPool createPool(final String name,
+                                             final String url,
+                                             final String username,
+                                             final String password,
+                                             final R2dbcProperties.Pool pool) {
+        final ConnectionFactory connectionFactory = ConnectionFactoryBuilder.withUrl(url)
+            .username(username)
+            .password(password)
+            .build();
+        final ConnectionPoolConfiguration.Builder builder = ConnectionPoolConfiguration.builder(connectionFactory)
+            .name(name)
+            .initialSize(pool.getInitialSize())
+            .maxSize(pool.getMaxSize())
+            .validationDepth(pool.getValidationDepth());
+        final PropertyMapper map = PropertyMapper.get().alwaysApplyingWhenNonNull();
+        map.from(pool.getMaxIdleTime()).to(builder::maxIdleTime);
+        map.from(pool.getMaxLifeTime()).to(builder::maxLifeTime);
+        map.from(pool.getMaxAcquireTime()).to(builder::maxAcquireTime);
+        map.from(pool.getMaxCreateConnectionTime()).to(builder::maxCreateConnectionTime);
+        map.from(pool.getValidationQuery()).whenHasText().to(builder::validationQuery);
+        return new ConnectionPool(builder.build());
+    }
+}
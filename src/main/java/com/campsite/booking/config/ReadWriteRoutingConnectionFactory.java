@@ -0,0 +1,61 @@
+package com.campsite.booking.config;
+
+import com.campsite.booking.filter.ReadRoute;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.r2dbc.connection.lookup.AbstractRoutingConnectionFactory;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The connection factory of the application when a read replica is configured: the connections of the reads marked by
+ * {@link ReadRoute#replica} come from the replica pool, all the others from the primary pool.
+ * The route is taken from the Reactor context when a connection is acquired, a transaction keeps the connection it began with.
+ */
+public class ReadWriteRoutingConnectionFactory extends AbstractRoutingConnectionFactory implements DisposableBean {
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+
+    private final ConnectionPool primary;
+    private final ConnectionPool replica;
+
+    public ReadWriteRoutingConnectionFactory(ConnectionPool primary, ConnectionPool replica) {
+        this.primary = primary;
+        this.replica = replica;
+        setTargetConnectionFactories(Map.of(PRIMARY, primary, REPLICA, replica));
+        setDefaultTargetConnectionFactory(primary);
+        setLenientFallback(false);
+        afterPropertiesSet();
+    }
+
+    public ConnectionPool getPrimary() {
+        return primary;
+    }
+
+    //the pools behind a connection factory of the application by name, the primary first
+    public static Map<String, ConnectionPool> getPools(final ConnectionFactory connectionFactory) {
+        final Map<String, ConnectionPool> pools = new LinkedHashMap<>();
+        if (connectionFactory instanceof ReadWriteRoutingConnectionFactory) {
+            pools.put(PRIMARY, ((ReadWriteRoutingConnectionFactory) connectionFactory).primary);
+            pools.put(REPLICA, ((ReadWriteRoutingConnectionFactory) connectionFactory).replica);
+        }
+        else if (connectionFactory instanceof ConnectionPool) {
+            pools.put(PRIMARY, (ConnectionPool) connectionFactory);
+        }
+        return pools;
+    }
+
+    @Override
+    protected Mono<Object> determineCurrentLookupKey() {
+        return Mono.deferContextual(context -> Mono.just(ReadRoute.isReplica(context) ? REPLICA : PRIMARY));
+    }
+
+    @Override
+    public void destroy() {
+        replica.dispose();
+        primary.dispose();
+    }
+}
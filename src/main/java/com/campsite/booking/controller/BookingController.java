@@ -1,11 +1,21 @@
 package com.campsite.booking.controller;
 
+import com.campsite.booking.dto.AvailabilityChange;
 import com.campsite.booking.dto.AvailabilityQueryResponse;
+import com.campsite.booking.dto.BookingDetailsResponse;
 import com.campsite.booking.dto.BookingRequest;
 import com.campsite.booking.dto.BookingResponse;
+import com.campsite.booking.dto.BulkBookingResult;
 import com.campsite.booking.dto.DeletionResponse;
+import com.campsite.booking.dto.HoldRequest;
+import com.campsite.booking.dto.HoldResponse;
+import com.campsite.booking.dto.SiteAvailabilityResponse;
+import com.campsite.booking.dto.StaySearchResponse;
 import com.campsite.booking.dto.UpdateRequest;
+import com.campsite.booking.entity.Site;
+import com.campsite.booking.exception.InvalidBookingException;
 import com.campsite.booking.service.BookingService;
+import com.campsite.booking.service.BulkBookingService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -15,6 +25,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -22,16 +34,20 @@ import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.validation.Valid;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 @RestController
 @Validated
@@ -39,44 +55,207 @@ import java.util.UUID;
 @Slf4j
 @RequiredArgsConstructor
 public class BookingController {
+    private static final Duration HEARTBEAT_INTERVAL = Duration.ofSeconds(15);
+
     private final BookingService service;
+    private final BulkBookingService bulkService;
 
     @GetMapping(path = "/availability",
         produces = MediaType.APPLICATION_JSON_VALUE)
-    @Operation(summary = "Query available dates to book the site",
+    @Operation(summary = "Query available dates to book the site, the default site is queried when the site is not given",
         responses = {
             @ApiResponse(responseCode = "200", description = "List of available dates between tomorrow and one month later",
                 content = {@Content(mediaType = "application/json",
                     schema = @Schema(implementation = AvailabilityQueryResponse.class))}
+            ),
+            @ApiResponse(responseCode = "304", description = "Nothing is booked or freed since the response tagged by If-None-Match", content = @Content)}
+    )
+    public Mono<ResponseEntity<AvailabilityQueryResponse>> queryAvailability(
+        @RequestParam(value = "start")
+        @DateTimeFormat(pattern = "yyyy-MM-dd")
+        LocalDate start,
+        @RequestParam(value = "end", required = false)
+        @DateTimeFormat(pattern = "yyyy-MM-dd")
+        LocalDate end,
+        @RequestParam(value = "site", required = false)
+        Long site,
+        ServerWebExchange exchange
+    ) {
+        final Long siteId = site == null ? Site.DEFAULT_SITE_ID : site;
+        return withAvailabilityETag(exchange, siteId, () -> service.validateAvailabilityQuery(start, end), () -> service.getAvailability(siteId, start, end));
+    }
+
+    @GetMapping(path = "/availability/changes",
+        produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Stream the availability changes as server-sent events, of all the sites when the site is not given",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "An `availability` event with the booked and freed dates of a site after every committed booking, update and cancellation",
+                content = {@Content(mediaType = "text/event-stream",
+                    schema = @Schema(implementation = AvailabilityChange.class))}
             )}
     )
-    @ResponseStatus(HttpStatus.OK)
-    public Mono<AvailabilityQueryResponse> queryAvailability(
+    public Flux<ServerSentEvent<AvailabilityChange>> streamAvailabilityChanges(
+        @RequestParam(value = "site", required = false)
+        Long site
+    ) {
+        //the first comment sends the response headers right away, the heartbeat comments keep idle connections open
+        //through proxies and detect the clients which went away
+        return Flux.merge(service.getAvailabilityChanges(site)
+                              .map(change -> ServerSentEvent.builder(change).event("availability").build()),
+                          Flux.interval(HEARTBEAT_INTERVAL)
+                              .map(tick -> ServerSentEvent.<AvailabilityChange>builder().comment("heartbeat").build()))
+            .startWith(ServerSentEvent.<AvailabilityChange>builder().comment("connected").build());
+    }
+
+    @GetMapping(path = "/availability/sites",
+        produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Query the sites which are available on every date of the range",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "List of site ids available for the whole date range",
+                content = {@Content(mediaType = "application/json",
+                    schema = @Schema(implementation = SiteAvailabilityResponse.class))}
+            ),
+            @ApiResponse(responseCode = "304", description = "Nothing is booked or freed since the response tagged by If-None-Match", content = @Content)}
+    )
+    public Mono<ResponseEntity<SiteAvailabilityResponse>> queryAvailableSites(
         @RequestParam(value = "start")
         @DateTimeFormat(pattern = "yyyy-MM-dd")
         LocalDate start,
         @RequestParam(value = "end", required = false)
         @DateTimeFormat(pattern = "yyyy-MM-dd")
-        LocalDate end
+        LocalDate end,
+        ServerWebExchange exchange
     ) {
-        return service.getAvailability(start, end);
+        return withAvailabilityETag(exchange, null, () -> service.validateAvailabilityQuery(start, end), () -> service.getAvailableSites(start, end));
+    }
+
+    @GetMapping(path = "/availability/stays",
+        produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Search the earliest stays of 1 to 3 free nights in the range, of the site or of all the sites when the site is not given",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "The stays by start date then site id, at most limit of them, all of them without a limit",
+                content = {@Content(mediaType = "application/json",
+                    schema = @Schema(implementation = StaySearchResponse.class))}
+            ),
+            @ApiResponse(responseCode = "304", description = "Nothing is booked or freed since the response tagged by If-None-Match", content = @Content)}
+    )
+    public Mono<ResponseEntity<StaySearchResponse>> searchStays(
+        @RequestParam(value = "nights")
+        int nights,
+        @RequestParam(value = "start")
+        @DateTimeFormat(pattern = "yyyy-MM-dd")
+        LocalDate start,
+        @RequestParam(value = "end", required = false)
+        @DateTimeFormat(pattern = "yyyy-MM-dd")
+        LocalDate end,
+        @RequestParam(value = "site", required = false)
+        Long site,
+        @RequestParam(value = "limit", required = false)
+        Integer limit,
+        ServerWebExchange exchange
+    ) {
+        return withAvailabilityETag(exchange, site, () -> service.validateStayQuery(nights, start, end, limit), () -> service.findStays(site, nights, start, end, limit));
+    }
+
+    //an invalid query is rejected whatever its If-None-Match, then If-None-Match is answered by 304 before the availability is queried.
+    //The tag is of the site, or of all the sites when it is null.
+    //The tag is read before the query, so a change committed meanwhile can only make the tag older than the response, never newer.
+    private <T> Mono<ResponseEntity<T>> withAvailabilityETag(final ServerWebExchange exchange,
+                                                             final Long siteId,
+                                                             final Runnable validation,
+                                                             final Supplier<Mono<T>> query) {
+        return Mono.fromRunnable(validation).then(Mono.defer(() -> {
+            final String eTag = service.getAvailabilityETag(siteId);
+            if (eTag == null) {
+                return query.get().map(ResponseEntity::ok);
+            }
+            if (exchange.checkNotModified(eTag)) {
+                return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build());
+            }
+            return query.get().map(body -> ResponseEntity.ok().eTag(eTag).body(body));
+        }));
     }
 
     @PostMapping(path = "/book",
         consumes = MediaType.APPLICATION_JSON_VALUE,
         produces = MediaType.APPLICATION_JSON_VALUE)
-    @Operation(summary = "Make a site booking",
+    @Operation(summary = "Make a site booking. A retry with the same Idempotency-Key header gets the response of the first request",
         responses = {
             @ApiResponse(responseCode = "201", description = "Booking is successful, the booking ID is returned",
                 content = {@Content(mediaType = "application/json",
                     schema = @Schema(implementation = BookingResponse.class))}),
             @ApiResponse(responseCode = "400", description = "Booking failed due to invalid booking request", content = @Content),
-            @ApiResponse(responseCode = "500", description = "Server side error, for example, conflict with other bookings", content = @Content),
+            @ApiResponse(responseCode = "409", description = "Conflict with other bookings or holds, the dates still free around the request are returned", content = @Content),
+            @ApiResponse(responseCode = "410", description = "The hold of the hold token expired or was released", content = @Content),
+            @ApiResponse(responseCode = "422", description = "The Idempotency-Key was used by a different booking request", content = @Content),
+            @ApiResponse(responseCode = "429", description = "Too many concurrent writes, retry after the Retry-After seconds", content = @Content),
         })
     @ResponseStatus(HttpStatus.CREATED)
     public Mono<BookingResponse> book(
+        @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
         @Valid @RequestBody Mono<BookingRequest> request) {
-        return service.book(request);
+        return idempotencyKey == null ? service.book(request) : service.book(idempotencyKey, request);
+    }
+
+    @PostMapping(path = "/hold",
+        consumes = MediaType.APPLICATION_JSON_VALUE,
+        produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Hold the dates of a site during a checkout, the booking with the returned hold token gets them for sure until the hold expires",
+        responses = {
+            @ApiResponse(responseCode = "201", description = "The dates are held, the hold token and its expiry are returned",
+                content = {@Content(mediaType = "application/json",
+                    schema = @Schema(implementation = HoldResponse.class))}),
+            @ApiResponse(responseCode = "400", description = "Hold failed due to invalid hold request", content = @Content),
+            @ApiResponse(responseCode = "409", description = "Conflict with other bookings or holds, the dates still free around the request are returned", content = @Content),
+        })
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<HoldResponse> hold(@Valid @RequestBody Mono<HoldRequest> request) {
+        return service.hold(request);
+    }
+
+    @DeleteMapping(path = "/hold/{token}")
+    @Operation(summary = "Release a hold before it expires, when the checkout is abandoned",
+        responses = {
+            @ApiResponse(responseCode = "204", description = "The dates are not held any more", content = @Content),
+            @ApiResponse(responseCode = "400", description = "Invalid hold token", content = @Content),
+            @ApiResponse(responseCode = "404", description = "The hold expired, was released or was booked", content = @Content),
+        })
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<Void> releaseHold(
+        @PathVariable("token") String token
+    ) {
+        return service.releaseHold(getUUID(token));
+    }
+
+    @PostMapping(path = "/book/bulk",
+        consumes = MediaType.APPLICATION_NDJSON_VALUE,
+        produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Make many site bookings from a stream of booking requests, one JSON request per line",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "One result per line as the bookings are written: the index of the request, " +
+                "the status a single booking would get, and the booking ID or the failure message",
+                content = {@Content(mediaType = "application/x-ndjson",
+                    schema = @Schema(implementation = BulkBookingResult.class))}),
+        })
+    public Flux<BulkBookingResult> bookAll(@RequestBody Flux<BookingRequest> requests) {
+        log.info("Bulk booking");
+        return bulkService.book(requests);
+    }
+
+    @GetMapping(path = "/booking/{id}",
+        produces = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Get a booking with its dates by its booking id",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "The booking, start and end are its first and last booked night",
+                content = {@Content(mediaType = "application/json",
+                    schema = @Schema(implementation = BookingDetailsResponse.class))}),
+            @ApiResponse(responseCode = "400", description = "Invalid booking id", content = @Content),
+            @ApiResponse(responseCode = "404", description = "The booking does not exist", content = @Content),
+        })
+    public Mono<BookingDetailsResponse> getBooking(
+        @PathVariable("id") String id
+    ) {
+        return service.get(getUUID(id));
     }
 
     @PatchMapping(path = "/update/{id}",
@@ -89,14 +268,15 @@ public class BookingController {
                     schema = @Schema(implementation = BookingResponse.class))}),
             @ApiResponse(responseCode = "400", description = "Update failed due to invalid update request", content = @Content),
             @ApiResponse(responseCode = "404", description = "The booking does not exist", content = @Content),
-            @ApiResponse(responseCode = "500", description = "Server side error, for example, conflict with other bookings", content = @Content),
+            @ApiResponse(responseCode = "409", description = "Conflict with other bookings, the dates still free around the request are returned", content = @Content),
+            @ApiResponse(responseCode = "429", description = "Too many concurrent writes, retry after the Retry-After seconds", content = @Content),
         })
     @ResponseStatus(HttpStatus.OK)
     public Mono<BookingResponse> update(
         @PathVariable("id") String id,
         @Valid @RequestBody Mono<UpdateRequest> booking) {
         UUID uuid = getUUID(id);
-        log.info(String.format("Update booking: %s", uuid));
+        log.info("Update booking: {}", uuid);
         return service.update(uuid, booking);
     }
 
@@ -104,9 +284,8 @@ public class BookingController {
         try {
             return UUID.fromString(id); //throws IllegalArgumentException
         }
-        catch (Exception e) {
-            log.error("Invalid UUID.", e);
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid UUID", e);
+        catch (IllegalArgumentException e) {
+            throw new InvalidBookingException("Invalid UUID");
         }
     }
 
@@ -118,13 +297,14 @@ public class BookingController {
                 content = {@Content(mediaType = "application/json",
                     schema = @Schema(implementation = BookingResponse.class))}),
             @ApiResponse(responseCode = "404", description = "The booking does not exist", content = @Content),
+            @ApiResponse(responseCode = "429", description = "Too many concurrent writes, retry after the Retry-After seconds", content = @Content),
         })
     @ResponseStatus(HttpStatus.OK)
     public Mono<DeletionResponse> cancel(
         @PathVariable("id") String id
     ) {
         UUID uuid = getUUID(id); //throws IllegalArgumentException
-        log.info(String.format("Delete booking: %s", uuid));
+        log.info("Delete booking: {}", uuid);
         return service.delete(uuid);
     }
 }
@@ -0,0 +1,18 @@
+package com.campsite.booking.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.List;
+
+//the dates of a site which a committed book/update/cancel made unavailable(bookedDates) or available again(freedDates)
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AvailabilityChange {
+    Long siteId;
+    List<LocalDate> bookedDates;
+    List<LocalDate> freedDates;
+}
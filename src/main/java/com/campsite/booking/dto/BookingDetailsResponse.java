@@ -0,0 +1,25 @@
+package com.campsite.booking.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonFormat.Shape;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+//a booking with its first(start) and last(end) booked night
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BookingDetailsResponse {
+    UUID bookingId;
+    Long siteId;
+    String name;
+    String email;
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd")
+    LocalDate start;
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd")
+    LocalDate end;
+}
@@ -4,14 +4,26 @@ import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonFormat.Shape;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
 import java.time.LocalDate;
+import java.util.UUID;
 
 @Data
 @AllArgsConstructor
+@NoArgsConstructor
 public class BookingRequest {
+    public BookingRequest(String name, String email, LocalDate start, LocalDate end) {
+        this(name, email, start, end, null);
+    }
+
+    public BookingRequest(String name, String email, LocalDate start, LocalDate end, Long siteId) {
+        this(name, email, start, end, siteId, null);
+    }
+
     @NotNull(message="Name cannot be missing or empty")
     String name;
     @NotNull(message="Email cannot be missing or empty")
@@ -23,4 +35,9 @@ public class BookingRequest {
     @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd")
     @NotNull(message="End date cannot be missing or empty")
     LocalDate end;
+    //the default site is booked when it is missing
+    @Positive(message="Site id must be a positive number")
+    Long siteId;
+    //the dates of the hold are booked for sure, they must be the dates and the site of the request
+    UUID holdToken;
 }
@@ -0,0 +1,21 @@
+package com.campsite.booking.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+//the result of one request of a bulk booking: index is its position in the request stream(from 0),
+//status the http status it would get as a single booking, bookingId is set when it is booked and message when it failed
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkBookingResult {
+    long index;
+    int status;
+    UUID bookingId;
+    String message;
+}
@@ -0,0 +1,26 @@
+package com.campsite.booking.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonFormat.Shape;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import java.time.LocalDate;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class HoldRequest {
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd")
+    @NotNull(message="Start date cannot be missing or empty")
+    LocalDate start;
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd")
+    @NotNull(message="End date cannot be missing or empty")
+    LocalDate end;
+    //the default site is held when it is missing
+    @Positive(message="Site id must be a positive number")
+    Long siteId;
+}
@@ -0,0 +1,25 @@
+package com.campsite.booking.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonFormat.Shape;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.UUID;
+
+//the dates held for the booking which gives the hold token, until they expire at expiresAt
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class HoldResponse {
+    UUID holdToken;
+    Long siteId;
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd")
+    LocalDate start;
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd")
+    LocalDate end;
+    Instant expiresAt;
+}
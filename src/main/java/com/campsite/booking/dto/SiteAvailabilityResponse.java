@@ -0,0 +1,21 @@
+package com.campsite.booking.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonFormat.Shape;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SiteAvailabilityResponse {
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd")
+    LocalDate start;
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd")
+    LocalDate end;
+    List<Long> availableSites;
+}
@@ -0,0 +1,21 @@
+package com.campsite.booking.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonFormat.Shape;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+//free nights of a site from start to end, which can be booked as they are
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class Stay {
+    Long siteId;
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd")
+    LocalDate start;
+    @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd")
+    LocalDate end;
+}
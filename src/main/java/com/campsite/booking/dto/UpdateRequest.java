@@ -4,13 +4,20 @@ import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonFormat.Shape;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import javax.validation.constraints.Email;
+import javax.validation.constraints.Positive;
 import java.time.LocalDate;
 
 @Data
 @AllArgsConstructor
+@NoArgsConstructor
 public class UpdateRequest {
+    public UpdateRequest(String name, String email, LocalDate start, LocalDate end) {
+        this(name, email, start, end, null);
+    }
+
     String name;
     @Email(message="Not a valid Email", regexp = "^(.+)@(\\S+)$")
     String email;
@@ -18,4 +25,6 @@ public class UpdateRequest {
     LocalDate start;
     @JsonFormat(shape = Shape.STRING, pattern = "yyyy-MM-dd")
     LocalDate end;
+    @Positive(message="Site id must be a positive number")
+    Long siteId;
 }
\ No newline at end of file
@@ -15,9 +15,10 @@ import java.util.UUID;
 @AllArgsConstructor
 public class Booking {
 
-    public Booking(String name, String email, UUID bookingId, LocalDate start, LocalDate end) {
+    public Booking(String name, String email, Long siteId, UUID bookingId, LocalDate start, LocalDate end) {
         this.name = name;
         this.email = email;
+        this.siteId = siteId;
         this.bookingId = bookingId;
         this.start = start;
         this.end = end;
@@ -28,6 +29,9 @@ public class Booking {
 
     private UUID bookingId;
 
+    @NotNull
+    private Long siteId;
+
     @NotNull
     private String name;
     @NotNull
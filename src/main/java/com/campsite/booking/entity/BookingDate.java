@@ -11,8 +11,9 @@ import java.time.LocalDate;
 @NoArgsConstructor
 @AllArgsConstructor
 public class BookingDate {
-    public BookingDate(Long bookingId, /*UUID bookingUUID,*/ LocalDate bookedDate) {
+    public BookingDate(Long bookingId, /*UUID bookingUUID,*/ Long siteId, LocalDate bookedDate) {
         this.bookingId = bookingId;
+        this.siteId = siteId;
         this.bookedDate = bookedDate;
     }
 
@@ -20,5 +21,6 @@ public class BookingDate {
     private Long id;
 
     private Long bookingId;
+    private Long siteId;
     private LocalDate bookedDate;
 }
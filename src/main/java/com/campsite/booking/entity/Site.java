@@ -0,0 +1,19 @@
+package com.campsite.booking.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Site {
+    //the site bookings go to when the request does not name one
+    public static final Long DEFAULT_SITE_ID = 1L;
+
+    @Id
+    private Long id;
+
+    private String name;
+}
@@ -0,0 +1,22 @@
+package com.campsite.booking.exception;
+
+import org.springframework.http.HttpStatus;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * The requested dates are booked already, it carries the dates of the site which are still free around the request.
+ */
+public class BookingConflictException extends BookingException {
+    private final List<LocalDate> availableDates;
+
+    public BookingConflictException(final Long siteId, final LocalDate start, final LocalDate end, final List<LocalDate> availableDates) {
+        super(HttpStatus.CONFLICT, String.format("Site %s is already booked on some dates from %s to %s", siteId, start, end));
+        this.availableDates = availableDates;
+    }
+
+    public List<LocalDate> getAvailableDates() {
+        return availableDates;
+    }
+}
@@ -0,0 +1,19 @@
+package com.campsite.booking.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * An expected failure of a booking request, answered by its 4xx status.
+ * Clients cause them at any rate, so they have no stack trace and the error handler logs them aggregated.
+ */
+public class BookingException extends ResponseStatusException {
+    public BookingException(final HttpStatus status, final String reason) {
+        super(status, reason);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,9 @@
+package com.campsite.booking.exception;
+
+import org.springframework.http.HttpStatus;
+
+public class BookingNotFoundException extends BookingException {
+    public BookingNotFoundException() {
+        super(HttpStatus.NOT_FOUND, "Booking is not found");
+    }
+}
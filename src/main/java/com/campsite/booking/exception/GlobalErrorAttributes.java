@@ -1,22 +1,53 @@
 package com.campsite.booking.exception;
 
+import com.campsite.booking.filter.CorrelationId;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.error.ErrorAttributeOptions;
 import org.springframework.boot.web.reactive.error.DefaultErrorAttributes;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.server.ServerRequest;
 
+import java.time.Duration;
 import java.util.Map;
 
 @Component
 @Slf4j
-public class GlobalErrorAttributes extends DefaultErrorAttributes {
+public class GlobalErrorAttributes extends DefaultErrorAttributes implements DisposableBean {
+    private final RejectedRequestLog rejectedRequests;
+
+    public GlobalErrorAttributes(@Value("${campsite.errors.log-interval:PT10S}") Duration logInterval) {
+        this.rejectedRequests = new RejectedRequestLog(logInterval);
+    }
+
+    //only the server errors are logged one by one with their stack trace, the client errors are counted
     @Override
     public Map<String, Object> getErrorAttributes(ServerRequest request, ErrorAttributeOptions options) {
         Map<String,Object> errorAttributes = super.getErrorAttributes(request, options);
         Throwable error = getError(request);
 
-        log.error(error.getMessage(), error);
+        if (error instanceof BookingConflictException) {
+            errorAttributes.put("availableDates", ((BookingConflictException) error).getAvailableDates());
+        }
+        int status = (int) errorAttributes.getOrDefault("status", 500);
+        if (status < 500) {
+            rejectedRequests.add(status, error);
+            return errorAttributes;
+        }
+        String correlationId = (String) request.attribute(CorrelationId.KEY).orElse(null);
+        CorrelationId.run(correlationId, () -> log.error(error.getMessage(), error));
         return errorAttributes;
     }
+
+    @Scheduled(fixedDelayString = "${campsite.errors.log-interval:PT10S}", initialDelayString = "${campsite.errors.log-interval:PT10S}")
+    public void logRejectedRequests() {
+        rejectedRequests.flush();
+    }
+
+    @Override
+    public void destroy() {
+        rejectedRequests.flush();
+    }
 }
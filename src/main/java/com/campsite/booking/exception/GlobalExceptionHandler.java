@@ -39,6 +39,11 @@ public class GlobalExceptionHandler extends AbstractErrorWebExceptionHandler {
         return RouterFunctions.route(RequestPredicates.all(), this::renderErrorResponse);
     }
 
+    //the errors are logged by GlobalErrorAttributes
+    @Override
+    protected void logError(ServerRequest request, ServerResponse response, Throwable throwable) {
+    }
+
     private Mono<ServerResponse> renderErrorResponse(final ServerRequest request) {
         ErrorAttributeOptions options = isMessageEnabled(request) ? of(Include.MESSAGE) : defaults();
         final Map<String, Object> errorPropertiesMap = getErrorAttributes(request, options);
@@ -0,0 +1,10 @@
+package com.campsite.booking.exception;
+
+import org.springframework.http.HttpStatus;
+
+//the request breaks a booking rule, like dates out of the booking window or an unknown site
+public class InvalidBookingException extends BookingException {
+    public InvalidBookingException(final String reason) {
+        super(HttpStatus.BAD_REQUEST, reason);
+    }
+}
@@ -0,0 +1,46 @@
+package com.campsite.booking.exception;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The expected failures counted by status and exception type, logged as one line per kind by every flush.
+ * A flood of bad requests costs a counter increment per request instead of a log line.
+ */
+@Slf4j
+final class RejectedRequestLog {
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Duration interval;
+
+    //interval is how often it is flushed
+    RejectedRequestLog(final Duration interval) {
+        this.interval = interval;
+    }
+
+    void add(final int status, final Throwable error) {
+        final Entry entry = entries.computeIfAbsent(status + " " + error.getClass().getSimpleName(), key -> new Entry());
+        entry.count.increment();
+        entry.lastMessage = error.getMessage();
+    }
+
+    //the counts of a kind are reset as they are logged, an idle kind is dropped
+    void flush() {
+        entries.forEach((kind, entry) -> {
+            final long count = entry.count.sumThenReset();
+            if (count == 0) {
+                entries.remove(kind, entry);
+                return;
+            }
+            log.info("{} request(s) failed by {} in the last {}s, the last one: {}", count, kind, interval.toSeconds(), entry.lastMessage);
+        });
+    }
+
+    private static final class Entry {
+        private final LongAdder count = new LongAdder();
+        private volatile String lastMessage;
+    }
+}
@@ -0,0 +1,69 @@
+package com.campsite.booking.filter;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AIMD(additive increase, multiplicative decrease) limit of the concurrent write requests.
+ * A request slower than the latency threshold, or failed by the server, cuts the limit by the backoff ratio;
+ * a fast request while at least half of the limit is in use raises the limit by one.
+ * The limit stays between min-limit and max-limit, its state is exposed as booking.limiter.* gauges.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+    //only changed under the monitor of the limiter, read without it
+    private volatile double limit;
+
+    public AdaptiveConcurrencyLimiter(MeterRegistry registry,
+                                      @Value("${campsite.limiter.initial-limit:20}") int initialLimit,
+                                      @Value("${campsite.limiter.min-limit:2}") int minLimit,
+                                      @Value("${campsite.limiter.max-limit:200}") int maxLimit,
+                                      @Value("${campsite.limiter.latency-threshold:250ms}") Duration latencyThreshold,
+                                      @Value("${campsite.limiter.backoff-ratio:0.9}") double backoffRatio) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.limit = initialLimit;
+        Gauge.builder("booking.limiter.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+            .description("Concurrent write requests allowed by the adaptive limiter")
+            .register(registry);
+        Gauge.builder("booking.limiter.in.flight", inFlight, AtomicInteger::get)
+            .description("Write requests in flight")
+            .register(registry);
+    }
+
+    public boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > (int) limit) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public void release(final long latencyNanos, final boolean failed) {
+        final int inUse = inFlight.getAndDecrement();
+        synchronized (this) {
+            if (failed || latencyNanos > latencyThresholdNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            }
+            else if (inUse * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+}
@@ -0,0 +1,66 @@
+package com.campsite.booking.filter;
+
+import org.slf4j.MDC;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoOperator;
+import reactor.core.publisher.Signal;
+import reactor.util.context.ContextView;
+
+import java.util.function.Consumer;
+
+/**
+ * The correlation id of a request: the X-Correlation-Id header, the correlationId key of the Reactor context
+ * and of the MDC. Log4j copies the MDC into the log event when the statement runs, so the async loggers write
+ * the id of the request even though they format the event on their own thread.
+ * The MDC is set while the request is subscribed, the logs which run on a later signal(after the body is decoded,
+ * after a DB read) take the id from the context of their signal by {@link #onNext} or {@link #get}.
+ */
+public final class CorrelationId {
+    public static final String HEADER = "X-Correlation-Id";
+    public static final String KEY = "correlationId";
+
+    private CorrelationId() {
+    }
+
+    //the id of the subscriber context is in the MDC while the source is subscribed,
+    //which is when the controllers and services run their request logs
+    public static <T> Mono<T> withMdc(final Mono<T> source) {
+        return new MdcMono<>(source);
+    }
+
+    //for doOnEach: the statement runs on the value with the id of the signal context in the MDC
+    public static <T> Consumer<Signal<T>> onNext(final Consumer<T> statement) {
+        return signal -> {
+            if (signal.isOnNext()) {
+                run(get(signal.getContextView()), () -> statement.accept(signal.get()));
+            }
+        };
+    }
+
+    public static String get(final ContextView context) {
+        return context.getOrDefault(KEY, null);
+    }
+
+    //for the logs which run outside of the subscription, like the error handler
+    public static void run(final String correlationId, final Runnable statement) {
+        if (correlationId == null) {
+            statement.run();
+            return;
+        }
+        try (MDC.MDCCloseable ignored = MDC.putCloseable(KEY, correlationId)) {
+            statement.run();
+        }
+    }
+
+    private static final class MdcMono<T> extends MonoOperator<T, T> {
+        private MdcMono(Mono<? extends T> source) {
+            super(source);
+        }
+
+        @Override
+        public void subscribe(final CoreSubscriber<? super T> actual) {
+            run(get(actual.currentContext()), () -> source.subscribe(actual));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.campsite.booking.filter;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Tags every request with a {@link CorrelationId}: the one the client sent, or a new random one.
+ * It is returned as the response header, kept as an exchange attribute and in the Reactor context of the request.
+ * It runs first, so the requests shed by the other filters are tagged too.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class CorrelationIdFilter implements WebFilter {
+    //the ids of the clients end up in the logs, they are kept only when they are short and plain
+    private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    @Override
+    public Mono<Void> filter(final ServerWebExchange exchange, final WebFilterChain chain) {
+        final String correlationId = getCorrelationId(exchange.getRequest());
+        exchange.getResponse().getHeaders().set(CorrelationId.HEADER, correlationId);
+        exchange.getAttributes().put(CorrelationId.KEY, correlationId);
+        return CorrelationId.withMdc(chain.filter(exchange))
+            .contextWrite(Context.of(CorrelationId.KEY, correlationId));
+    }
+
+    //not a UUID: the SecureRandom of UUID.randomUUID is shared by all the requests
+    private String getCorrelationId(final ServerHttpRequest request) {
+        final String id = request.getHeaders().getFirst(CorrelationId.HEADER);
+        if (id != null && VALID_ID.matcher(id).matches()) {
+            return id;
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        return Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+    }
+}
@@ -0,0 +1,42 @@
+package com.campsite.booking.filter;
+
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+/**
+ * Where the DB reads of a request go, the readRoute key of the Reactor context.
+ * The {@link ReadYourWritesFilter} lets a request read from the replica unless its session wrote recently,
+ * and the services mark the reads which can be a little stale with {@link #replica}. Only those are sent to the replica,
+ * the transactions, the writes and the reads the writes decide on stay on the primary.
+ * Without a replica the requests are not marked, and the marked reads run on the primary like the others.
+ */
+public final class ReadRoute {
+    public static final String KEY = "readRoute";
+
+    private enum Route {
+        //the request may read from the replica
+        ANY,
+        //the session wrote recently, it reads its writes from the primary
+        PRIMARY,
+        //the read goes to the replica
+        REPLICA
+    }
+
+    private ReadRoute() {
+    }
+
+    //the reads of the source go to the replica when the request may read from it
+    public static <T> Mono<T> replica(final Mono<T> source) {
+        return source.contextWrite(context -> context.getOrDefault(KEY, null) == Route.ANY ? context.put(KEY, Route.REPLICA) : context);
+    }
+
+    public static boolean isReplica(final ContextView context) {
+        return context.getOrDefault(KEY, null) == Route.REPLICA;
+    }
+
+    //the route of a request, primary for the sessions which must read their writes
+    static Context of(final boolean primary) {
+        return Context.of(KEY, primary ? Route.PRIMARY : Route.ANY);
+    }
+}
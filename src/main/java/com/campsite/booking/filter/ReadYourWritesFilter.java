@@ -0,0 +1,79 @@
+package com.campsite.booking.filter;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseCookie;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Read-your-writes for the read replica of `campsite.read-replica`: a successful book, bulk book, update or cancel
+ * sets the primary-until cookie, and the requests of the session read from the primary until then,
+ * `campsite.read-replica.read-your-writes` after the write. The other requests may read from the replica, see {@link ReadRoute}.
+ */
+@Component
+@ConditionalOnProperty(name = "campsite.read-replica.enabled", havingValue = "true")
+public class ReadYourWritesFilter implements WebFilter {
+    public static final String COOKIE = "primary-until";
+    private static final String API = "/booking/api/v1";
+
+    private final Duration window;
+
+    public ReadYourWritesFilter(@Value("${campsite.read-replica.read-your-writes:10s}") Duration window) {
+        this.window = window;
+    }
+
+    @Override
+    public Mono<Void> filter(final ServerWebExchange exchange, final WebFilterChain chain) {
+        final long now = System.currentTimeMillis();
+        if (isWrite(exchange.getRequest())) {
+            final ServerHttpResponse response = exchange.getResponse();
+            response.beforeCommit(() -> {
+                final HttpStatus status = response.getStatusCode();
+                if (status != null && status.is2xxSuccessful()) {
+                    response.addCookie(ResponseCookie.from(COOKIE, String.valueOf(System.currentTimeMillis() + window.toMillis()))
+                                           .path(API)
+                                           .maxAge(window)
+                                           .httpOnly(true)
+                                           .sameSite("Lax")
+                                           .build());
+                }
+                return Mono.empty();
+            });
+        }
+        return chain.filter(exchange)
+            .contextWrite(ReadRoute.of(isPrimary(exchange.getRequest(), now)));
+    }
+
+    //a malformed cookie is ignored, the session reads from the replica
+    private boolean isPrimary(final ServerHttpRequest request, final long now) {
+        final HttpCookie cookie = request.getCookies().getFirst(COOKIE);
+        if (cookie == null) {
+            return false;
+        }
+        try {
+            return Long.parseLong(cookie.getValue()) > now;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private boolean isWrite(final ServerHttpRequest request) {
+        final String path = request.getPath().pathWithinApplication().value();
+        final HttpMethod method = request.getMethod();
+        return (method == HttpMethod.POST && (path.equals(API + "/book") || path.equals(API + "/book/bulk")))
+            || (method == HttpMethod.PATCH && path.startsWith(API + "/update/"))
+            || (method == HttpMethod.DELETE && path.startsWith(API + "/cancel/"));
+    }
+}
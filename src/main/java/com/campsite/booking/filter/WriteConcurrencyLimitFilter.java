@@ -0,0 +1,78 @@
+package com.campsite.booking.filter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Sheds the book, update and cancel requests over the limit of the {@link AdaptiveConcurrencyLimiter}:
+ * they get 429(Too Many Requests) with Retry-After right away, before a transaction is opened.
+ */
+@Component
+public class WriteConcurrencyLimitFilter implements WebFilter {
+    private static final String API = "/booking/api/v1";
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final String retryAfterSeconds;
+    private final Counter rejected;
+
+    public WriteConcurrencyLimitFilter(AdaptiveConcurrencyLimiter limiter,
+                                       MeterRegistry registry,
+                                       @Value("${campsite.limiter.retry-after:1s}") Duration retryAfter) {
+        this.limiter = limiter;
+        this.retryAfterSeconds = String.valueOf(Math.max(1, retryAfter.toSeconds()));
+        this.rejected = Counter.builder("booking.limiter.rejected")
+            .description("Write requests rejected by the adaptive limiter")
+            .register(registry);
+    }
+
+    @Override
+    public Mono<Void> filter(final ServerWebExchange exchange, final WebFilterChain chain) {
+        if (!isWrite(exchange.getRequest())) {
+            return chain.filter(exchange);
+        }
+        if (!limiter.tryAcquire()) {
+            rejected.increment();
+            ServerHttpResponse response = exchange.getResponse();
+            response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+            response.getHeaders().set(HttpHeaders.RETRY_AFTER, retryAfterSeconds);
+            return response.setComplete();
+        }
+        final long start = System.nanoTime();
+        return chain.filter(exchange)
+            .doOnSuccess(v -> limiter.release(System.nanoTime() - start, isServerError(exchange.getResponse().getStatusCode())))
+            .doOnError(e -> limiter.release(System.nanoTime() - start, isServerError(e)))
+            .doOnCancel(() -> limiter.release(System.nanoTime() - start, false));
+    }
+
+    private boolean isWrite(final ServerHttpRequest request) {
+        final String path = request.getPath().pathWithinApplication().value();
+        final HttpMethod method = request.getMethod();
+        return (method == HttpMethod.POST && path.equals(API + "/book"))
+            || (method == HttpMethod.PATCH && path.startsWith(API + "/update/"))
+            || (method == HttpMethod.DELETE && path.startsWith(API + "/cancel/"));
+    }
+
+    //only the server failures cut the limit, client errors like conflicts are normal outcomes.
+    //the errors of the controllers reach the filter before the error handler renders them
+    private boolean isServerError(final Throwable error) {
+        return !(error instanceof ResponseStatusException) || isServerError(((ResponseStatusException) error).getStatus());
+    }
+
+    private boolean isServerError(final HttpStatus status) {
+        return status != null && status.is5xxServerError();
+    }
+}
@@ -0,0 +1,50 @@
+package com.campsite.booking.repository;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Transaction-scoped Postgres advisory locks on the nights of a site, for `campsite.write-lock: advisory`.
+ * The writers of the same night wait for each other in the DB whichever instance they run on,
+ * so a writer finds the nights booked by the ones before it by a query instead of aborting on the unique constraint.
+ * The key of a night is the site id in the high 32 bits and the epoch day in the low ones.
+ */
+@Component
+@ConditionalOnProperty(name = "campsite.write-lock", havingValue = "advisory")
+public class AdvisoryNightLocks {
+    //lock_nights(V1_0_4) takes the locks in the order of the array, the keys are sorted so the writers do not deadlock
+    private static final String LOCK = "select lock_nights(:keys)";
+
+    private final DatabaseClient databaseClient;
+
+    public AdvisoryNightLocks(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    //held until the current transaction ends, it must run in one
+    public Mono<Void> lock(final Long siteId, final List<LocalDate> nights) {
+        final Long[] keys = nights.stream()
+            .map(night -> getKey(siteId, night))
+            .sorted()
+            .distinct()
+            .toArray(Long[]::new);
+        if (keys.length == 0) {
+            return Mono.empty();
+        }
+        //the row of lock_nights is void, it is counted and not read
+        return databaseClient.sql(LOCK)
+            .bind("keys", keys)
+            .fetch()
+            .rowsUpdated()
+            .then();
+    }
+
+    static long getKey(final Long siteId, final LocalDate night) {
+        return siteId << 32 | (night.toEpochDay() & 0xFFFFFFFFL);
+    }
+}
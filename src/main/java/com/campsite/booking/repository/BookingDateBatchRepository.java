@@ -0,0 +1,19 @@
+package com.campsite.booking.repository;
+
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.entity.BookingDate;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+public interface BookingDateBatchRepository {
+    //inserts all the dates by one multi-row INSERT statement
+    Mono<Void> insertAll(List<BookingDate> bookingDates);
+
+    //inserts the booking row and a booking_date row per night from its start to its end by one statement,
+    //returns the id of the booking row
+    Mono<Long> insertBooking(Booking booking);
+
+    //deletes the removed dates(by id) and inserts the added ones by one statement
+    Mono<Void> replace(List<BookingDate> removedDates, List<BookingDate> addedDates);
+}
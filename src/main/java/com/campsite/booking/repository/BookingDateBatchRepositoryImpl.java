@@ -0,0 +1,102 @@
+package com.campsite.booking.repository;
+
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.entity.BookingDate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.DatabaseClient.GenericExecuteSpec;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class BookingDateBatchRepositoryImpl implements BookingDateBatchRepository {
+    //the nights are the start plus 0 to (end - start) days, date arithmetic keeps the time zone out of it
+    private static final String INSERT_BOOKING = "with new_booking as (" +
+        "insert into booking (booking_id, site_id, name, email) values (:bookingId, :siteId, :name, :email) returning id, site_id), " +
+        "nights as (" +
+        "insert into booking_date (booking_id, site_id, booked_date) " +
+        "select new_booking.id, new_booking.site_id, :start + night from new_booking, generate_series(0, :end - :start) as night) " +
+        "select id from new_booking";
+
+    private final DatabaseClient databaseClient;
+    //the INSERT statements by their number of rows
+    private final Map<Integer, String> insertStatements = new ConcurrentHashMap<>();
+    //the DELETE(+INSERT) statements by their number of deleted and inserted rows
+    private final Map<Long, String> replaceStatements = new ConcurrentHashMap<>();
+
+    public BookingDateBatchRepositoryImpl(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    @Override
+    public Mono<Void> insertAll(final List<BookingDate> bookingDates) {
+        if (bookingDates.isEmpty()) {
+            return Mono.empty();
+        }
+        GenericExecuteSpec spec = databaseClient.sql(insertStatements.computeIfAbsent(bookingDates.size(), this::getInsertStatement));
+        return bindInsertedRows(spec, bookingDates).fetch().rowsUpdated().then();
+    }
+
+    @Override
+    public Mono<Long> insertBooking(final Booking booking) {
+        return databaseClient.sql(INSERT_BOOKING)
+            .bind("bookingId", booking.getBookingId())
+            .bind("siteId", booking.getSiteId())
+            .bind("name", booking.getName())
+            .bind("email", booking.getEmail())
+            .bind("start", booking.getStart())
+            .bind("end", booking.getEnd())
+            .map(row -> row.get("id", Long.class))
+            .one();
+    }
+
+    //the removed and added dates never share a (booked_date, site_id), so the unique constraint holds whatever order
+    //postgres runs the DELETE and the INSERT of the statement
+    @Override
+    public Mono<Void> replace(final List<BookingDate> removedDates, final List<BookingDate> addedDates) {
+        if (removedDates.isEmpty()) {
+            return insertAll(addedDates);
+        }
+        long rows = ((long) removedDates.size() << 32) | addedDates.size();
+        GenericExecuteSpec spec = databaseClient.sql(replaceStatements.computeIfAbsent(rows, r -> getReplaceStatement(removedDates.size(), addedDates.size())));
+        for (int i = 0; i < removedDates.size(); i++) {
+            spec = spec.bind("id" + i, removedDates.get(i).getId());
+        }
+        return bindInsertedRows(spec, addedDates).fetch().rowsUpdated().then();
+    }
+
+    private GenericExecuteSpec bindInsertedRows(GenericExecuteSpec spec, final List<BookingDate> bookingDates) {
+        for (int i = 0; i < bookingDates.size(); i++) {
+            BookingDate bookingDate = bookingDates.get(i);
+            spec = spec.bind("bookingId" + i, bookingDate.getBookingId())
+                .bind("siteId" + i, bookingDate.getSiteId())
+                .bind("bookedDate" + i, bookingDate.getBookedDate());
+        }
+        return spec;
+    }
+
+    private String getInsertStatement(final int rows) {
+        StringBuilder sql = new StringBuilder("insert into booking_date (booking_id, site_id, booked_date) values ");
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "" : ", ")
+                .append("(:bookingId").append(i)
+                .append(", :siteId").append(i)
+                .append(", :bookedDate").append(i)
+                .append(')');
+        }
+        return sql.toString();
+    }
+
+    private String getReplaceStatement(final int deletedRows, final int insertedRows) {
+        StringBuilder sql = new StringBuilder("delete from booking_date where id in (");
+        for (int i = 0; i < deletedRows; i++) {
+            sql.append(i == 0 ? "" : ", ").append(":id").append(i);
+        }
+        sql.append(')');
+        if (insertedRows == 0) {
+            return sql.toString();
+        }
+        return "with deleted as (" + sql + ") " + getInsertStatement(insertedRows);
+    }
+}
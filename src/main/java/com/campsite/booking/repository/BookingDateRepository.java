@@ -7,9 +7,9 @@ import reactor.core.publisher.Mono;
 
 import java.time.LocalDate;
 
-
-public interface BookingDateRepository extends R2dbcRepository<BookingDate, Long> {
+public interface BookingDateRepository extends R2dbcRepository<BookingDate, Long>, BookingDateBatchRepository {
     Flux<BookingDate> findBookingDateByBookedDateBetweenOrderByBookedDateAsc(LocalDate start, LocalDate enDate);
+    Flux<BookingDate> findBookingDateBySiteIdAndBookedDateBetweenOrderByBookedDateAsc(Long siteId, LocalDate start, LocalDate enDate);
     Flux<BookingDate> findBookingDateByBookingIdOrderByBookedDateAsc(Long bookingId);
     Mono<Void> deleteAllByBookingId(Long bookingId);
 }
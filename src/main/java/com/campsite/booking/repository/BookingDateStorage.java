@@ -0,0 +1,39 @@
+package com.campsite.booking.repository;
+
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.entity.BookingDate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Where the booked dates are stored, selected by `campsite.storage.mode`:
+ * nightly(default) keeps one booking_date row per night, range keeps one booking_range row per booking.
+ * Both read and write the dates as {@link BookingDate}s, one per night.
+ */
+public interface BookingDateStorage {
+    Flux<BookingDate> findBookedDates(LocalDate start, LocalDate end);
+
+    Flux<BookingDate> findBookedDates(Long siteId, LocalDate start, LocalDate end);
+
+    //ordered by the booked date
+    Flux<BookingDate> findBookingDates(Long bookingId);
+
+    Mono<Void> insert(List<BookingDate> bookingDates);
+
+    //the booking row and its dates from start to end by one statement, so a booking costs one round trip.
+    //returns the id of the booking row
+    Mono<Long> insertBooking(Booking booking);
+
+    //the dates of several bookings written in one transaction, booking by booking unless the storage batches them
+    default Mono<Void> insertAll(List<List<BookingDate>> bookingDatesByBooking) {
+        return Flux.fromIterable(bookingDatesByBooking)
+            .concatMap(this::insert)
+            .then();
+    }
+
+    //bookingDates are all the dates of the booking after the update, removedDates and addedDates are the difference to the stored ones
+    Mono<Void> update(List<BookingDate> bookingDates, List<BookingDate> removedDates, List<BookingDate> addedDates);
+}
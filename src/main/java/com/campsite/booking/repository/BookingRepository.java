@@ -1,6 +1,7 @@
 package com.campsite.booking.repository;
 
 import com.campsite.booking.entity.Booking;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import reactor.core.publisher.Mono;
 
@@ -8,6 +9,9 @@ import java.util.UUID;
 
 public interface BookingRepository extends R2dbcRepository<Booking, Long> {
     Mono<Booking> findBookingByBookingId(UUID bookingId);
+    //the booking row locked until the current transaction ends, another update or cancellation of it waits for the transaction
+    @Query("select * from booking where booking_id = :bookingId for update")
+    Mono<Booking> lockBookingByBookingId(UUID bookingId);
     Mono<Void> deleteBookingByBookingId(UUID bookingId);
 
 }
@@ -0,0 +1,63 @@
+package com.campsite.booking.repository;
+
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.entity.BookingDate;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Component
+@ConditionalOnProperty(name = "campsite.storage.mode", havingValue = "nightly", matchIfMissing = true)
+public class NightlyBookingDateStorage implements BookingDateStorage {
+    private final BookingDateRepository bookingDateRepo;
+
+    public NightlyBookingDateStorage(BookingDateRepository bookingDateRepo) {
+        this.bookingDateRepo = bookingDateRepo;
+    }
+
+    @Override
+    public Flux<BookingDate> findBookedDates(final LocalDate start, final LocalDate end) {
+        return bookingDateRepo.findBookingDateByBookedDateBetweenOrderByBookedDateAsc(start, end);
+    }
+
+    @Override
+    public Flux<BookingDate> findBookedDates(final Long siteId, final LocalDate start, final LocalDate end) {
+        return bookingDateRepo.findBookingDateBySiteIdAndBookedDateBetweenOrderByBookedDateAsc(siteId, start, end);
+    }
+
+    @Override
+    public Flux<BookingDate> findBookingDates(final Long bookingId) {
+        return bookingDateRepo.findBookingDateByBookingIdOrderByBookedDateAsc(bookingId);
+    }
+
+    @Override
+    public Mono<Void> insert(final List<BookingDate> bookingDates) {
+        return bookingDateRepo.insertAll(bookingDates);
+    }
+
+    @Override
+    public Mono<Long> insertBooking(final Booking booking) {
+        return bookingDateRepo.insertBooking(booking);
+    }
+
+    //the nights of all the bookings are inserted by one statement
+    @Override
+    public Mono<Void> insertAll(final List<List<BookingDate>> bookingDatesByBooking) {
+        return bookingDateRepo.insertAll(bookingDatesByBooking.stream()
+                                             .flatMap(List::stream)
+                                             .collect(Collectors.toList()));
+    }
+
+    //only the changed nights are written
+    @Override
+    public Mono<Void> update(final List<BookingDate> bookingDates,
+                             final List<BookingDate> removedDates,
+                             final List<BookingDate> addedDates) {
+        return bookingDateRepo.replace(removedDates, addedDates);
+    }
+}
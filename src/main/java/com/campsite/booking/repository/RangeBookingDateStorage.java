@@ -0,0 +1,135 @@
+package com.campsite.booking.repository;
+
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.entity.BookingDate;
+import io.r2dbc.spi.Row;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One booking_range row per booking: the nights of the booking as a [first night, last night] daterange.
+ * The booking_range_no_overlap exclusion constraint rejects overlapping ranges of a site,
+ * the ranges are expanded to one {@link BookingDate} per night when read.
+ */
+@Component
+@ConditionalOnProperty(name = "campsite.storage.mode", havingValue = "range")
+public class RangeBookingDateStorage implements BookingDateStorage {
+    private static final String INSERT_BOOKING = "with new_booking as (" +
+        "insert into booking (booking_id, site_id, name, email) values (:bookingId, :siteId, :name, :email) returning id, site_id), " +
+        "stay as (" +
+        "insert into booking_range (booking_id, site_id, stay) select id, site_id, daterange(:start, :end, '[]') from new_booking) " +
+        "select id from new_booking";
+    private static final String SELECT = "select booking_id, site_id, lower(stay) as first_night, upper(stay) as after_last_night from booking_range ";
+
+    private final DatabaseClient databaseClient;
+
+    public RangeBookingDateStorage(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    @Override
+    public Flux<BookingDate> findBookedDates(final LocalDate start, final LocalDate end) {
+        return databaseClient.sql(SELECT + "where stay && daterange(:start, :end, '[]')")
+            .bind("start", start)
+            .bind("end", end)
+            .map(Range::new)
+            .all()
+            .concatMapIterable(range -> range.getNights(start, end));
+    }
+
+    @Override
+    public Flux<BookingDate> findBookedDates(final Long siteId, final LocalDate start, final LocalDate end) {
+        return databaseClient.sql(SELECT + "where site_id = :siteId and stay && daterange(:start, :end, '[]')")
+            .bind("siteId", siteId)
+            .bind("start", start)
+            .bind("end", end)
+            .map(Range::new)
+            .all()
+            .concatMapIterable(range -> range.getNights(start, end));
+    }
+
+    @Override
+    public Flux<BookingDate> findBookingDates(final Long bookingId) {
+        return databaseClient.sql(SELECT + "where booking_id = :bookingId order by lower(stay)")
+            .bind("bookingId", bookingId)
+            .map(Range::new)
+            .all()
+            .concatMapIterable(range -> range.getNights(LocalDate.MIN, LocalDate.MAX));
+    }
+
+    //the nights of a booking are consecutive, they are stored by one row
+    @Override
+    public Mono<Void> insert(final List<BookingDate> bookingDates) {
+        if (bookingDates.isEmpty()) {
+            return Mono.empty();
+        }
+        final BookingDate first = bookingDates.get(0);
+        return databaseClient.sql("insert into booking_range (booking_id, site_id, stay) values (:bookingId, :siteId, daterange(:first, :last, '[]'))")
+            .bind("bookingId", first.getBookingId())
+            .bind("siteId", first.getSiteId())
+            .bind("first", first.getBookedDate())
+            .bind("last", bookingDates.get(bookingDates.size() - 1).getBookedDate())
+            .fetch()
+            .rowsUpdated()
+            .then();
+    }
+
+    @Override
+    public Mono<Long> insertBooking(final Booking booking) {
+        return databaseClient.sql(INSERT_BOOKING)
+            .bind("bookingId", booking.getBookingId())
+            .bind("siteId", booking.getSiteId())
+            .bind("name", booking.getName())
+            .bind("email", booking.getEmail())
+            .bind("start", booking.getStart())
+            .bind("end", booking.getEnd())
+            .map(row -> row.get("id", Long.class))
+            .one();
+    }
+
+    //the row of the booking gets the new range, whatever nights changed
+    @Override
+    public Mono<Void> update(final List<BookingDate> bookingDates,
+                             final List<BookingDate> removedDates,
+                             final List<BookingDate> addedDates) {
+        final BookingDate first = bookingDates.get(0);
+        return databaseClient.sql("update booking_range set site_id = :siteId, stay = daterange(:first, :last, '[]') where booking_id = :bookingId")
+            .bind("bookingId", first.getBookingId())
+            .bind("siteId", first.getSiteId())
+            .bind("first", first.getBookedDate())
+            .bind("last", bookingDates.get(bookingDates.size() - 1).getBookedDate())
+            .fetch()
+            .rowsUpdated()
+            .then();
+    }
+
+    private static final class Range {
+        private final Long bookingId;
+        private final Long siteId;
+        private final LocalDate firstNight;
+        //postgres returns the canonical [first, last + 1) form of a date range
+        private final LocalDate afterLastNight;
+
+        private Range(Row row) {
+            this.bookingId = row.get("booking_id", Long.class);
+            this.siteId = row.get("site_id", Long.class);
+            this.firstNight = row.get("first_night", LocalDate.class);
+            this.afterLastNight = row.get("after_last_night", LocalDate.class);
+        }
+
+        private List<BookingDate> getNights(final LocalDate start, final LocalDate end) {
+            final LocalDate from = firstNight.isBefore(start) ? start : firstNight;
+            final LocalDate to = afterLastNight.isAfter(end) ? end.plusDays(1) : afterLastNight;
+            List<BookingDate> nights = new ArrayList<>();
+            from.datesUntil(to).forEach(d -> nights.add(new BookingDate(bookingId, siteId, d)));
+            return nights;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.campsite.booking.repository;
+
+import com.campsite.booking.entity.Site;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+
+public interface SiteRepository extends R2dbcRepository<Site, Long> {
+}
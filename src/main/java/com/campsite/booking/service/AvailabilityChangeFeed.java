@@ -0,0 +1,54 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.dto.AvailabilityChange;
+import com.campsite.booking.entity.BookingDate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Multicasts the committed availability changes to the subscribers of the change stream.
+ * Every subscriber buffers at most buffer-size changes, a subscriber which falls further behind
+ * gets an overflow error and has to subscribe again, so slow clients cannot grow the memory of the server.
+ */
+@Component
+public class AvailabilityChangeFeed {
+    private final Sinks.Many<AvailabilityChange> sink = Sinks.many().multicast().directBestEffort();
+    private final int bufferSize;
+
+    public AvailabilityChangeFeed(@Value("${campsite.availability.changes.buffer-size:256}") int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public Flux<AvailabilityChange> getChanges(final Long siteId) {
+        return sink.asFlux()
+            .filter(change -> siteId == null || siteId.equals(change.getSiteId()))
+            .onBackpressureBuffer(bufferSize);
+    }
+
+    //one change per site; the sink does not accept concurrent emissions, so the committing threads take turns
+    public synchronized void publish(final Collection<BookingDate> freedDates, final Collection<BookingDate> bookedDates) {
+        Map<Long, List<LocalDate>> freed = bySite(freedDates);
+        Map<Long, List<LocalDate>> booked = bySite(bookedDates);
+        Set<Long> sites = new TreeSet<>(freed.keySet());
+        sites.addAll(booked.keySet());
+        sites.forEach(siteId -> sink.tryEmitNext(new AvailabilityChange(siteId,
+                                                                                 booked.getOrDefault(siteId, List.of()),
+                                                                                 freed.getOrDefault(siteId, List.of()))));
+    }
+
+    //the dates keep their order, the callers pass them ordered by date
+    private Map<Long, List<LocalDate>> bySite(final Collection<BookingDate> dates) {
+        return dates.stream()
+            .collect(Collectors.groupingBy(BookingDate::getSiteId, Collectors.mapping(BookingDate::getBookedDate, Collectors.toList())));
+    }
+}
@@ -0,0 +1,415 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.dto.Stay;
+import com.campsite.booking.entity.BookingDate;
+import com.campsite.booking.entity.Site;
+import com.campsite.booking.repository.BookingDateStorage;
+import com.campsite.booking.repository.SiteRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory view of the booked dates: for every site, one bit per day keyed by epoch-day.
+ * The window starts at today and covers the booking horizon, it is rebuilt from
+ * the sites and the stored booked dates at startup and kept in sync by the booking service after each commit.
+ * It rolls forward every day, and is rebuilt then if the sites changed.
+ * With `campsite.cluster-sync.enabled` the startup build is left to the cluster sync, which rebuilds it once it listens.
+ * The changes applied after a commit are published to the {@link AvailabilityChangeFeed}.
+ */
+@Component
+@Slf4j
+public class AvailabilityIndex {
+    private static final int WORD_BITS = 64;
+
+    private final SiteRepository siteRepo;
+    private final BookingDateStorage bookingDateStorage;
+    private final AvailabilityChangeFeed changeFeed;
+    private final int capacity;
+
+    //writers serialize on the lock, readers only read the volatile window
+    private final Object lock = new Object();
+    private volatile Window window;
+    //bumped after every change of the window, so a version read before a query is never newer than its result
+    private volatile long version;
+    //the version of the last rebuild or roll, which change all the sites, and of the last change of each site
+    private volatile long baseVersion;
+    private final Map<Long, Long> siteVersions = new ConcurrentHashMap<>();
+    //the changes made while each of the rebuilds in progress is loading, replayed on the window it loaded
+    private final List<List<Change>> pending = new ArrayList<>();
+    private final boolean clusterSync;
+
+    public AvailabilityIndex(SiteRepository siteRepo,
+                             BookingDateStorage bookingDateStorage,
+                             AvailabilityChangeFeed changeFeed,
+                             @Value("${campsite.availability.horizon-days:128}") int horizonDays,
+                             @Value("${campsite.cluster-sync.enabled:false}") boolean clusterSync) {
+        this.siteRepo = siteRepo;
+        this.bookingDateStorage = bookingDateStorage;
+        this.changeFeed = changeFeed;
+        this.capacity = ((horizonDays + WORD_BITS - 1) / WORD_BITS) * WORD_BITS;
+        this.clusterSync = clusterSync;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (clusterSync) {
+            return;
+        }
+        rebuild().subscribe(
+            v -> { },
+            e -> log.error("Failed to build the availability index, availability is served from the DB.", e));
+    }
+
+    //the rebuilds may overlap(the roll, a resync of the cluster sync), each of them replays the changes made while it loads
+    public Mono<Void> rebuild() {
+        return Mono.defer(() -> {
+            final long baseDay = LocalDate.now().toEpochDay();
+            final List<Change> changes = new ArrayList<>();
+            synchronized (lock) {
+                pending.add(changes);
+            }
+            Mono<List<Site>> sites = Flux.defer(() -> siteRepo.findAll(Sort.by("id"))).collectList();
+            Mono<List<BookingDate>> bookedDates = Flux.defer(() -> bookingDateStorage.findBookedDates(
+                    LocalDate.ofEpochDay(baseDay), LocalDate.ofEpochDay(baseDay + capacity - 1)))
+                .collectList();
+            return sites.zipWith(bookedDates)
+                .doOnNext(loaded -> install(baseDay, loaded.getT1(), loaded.getT2(), changes))
+                .doFinally(signal -> {
+                    synchronized (lock) {
+                        pending.removeIf(list -> list == changes);
+                    }
+                })
+                .then();
+        });
+    }
+
+    private void install(final long baseDay, final List<Site> sites, final List<BookingDate> bookedDates, final List<Change> changes) {
+        Window loaded = new Window(baseDay, capacity, sites.stream().mapToLong(Site::getId).toArray());
+        bookedDates.forEach(d -> loaded.set(d.getSiteId(), d.getBookedDate().toEpochDay(), true));
+        synchronized (lock) {
+            changes.forEach(change -> change.applyTo(loaded));
+            pending.removeIf(list -> list == changes);
+            window = loaded;
+            baseVersion = ++version;
+        }
+        log.info("Availability index loaded for {} sites with {} booked dates from {}",
+                 sites.size(), bookedDates.size(), LocalDate.ofEpochDay(baseDay));
+    }
+
+    //the sites are read again too: the index is rebuilt when sites were added or removed since it was loaded
+    @Scheduled(cron = "${campsite.availability.roll-cron:0 0 0 * * *}")
+    public void rollForward() {
+        final long today = LocalDate.now().toEpochDay();
+        synchronized (lock) {
+            Window current = window;
+            if (current != null && current.baseDay < today) {
+                window = current.shiftTo(today);
+                baseVersion = ++version;
+            }
+        }
+        reloadSites().subscribe(
+            v -> { },
+            e -> log.error("Failed to reload the sites of the availability index.", e));
+    }
+
+    Mono<Void> reloadSites() {
+        return Flux.defer(() -> siteRepo.findAll(Sort.by("id")))
+            .map(Site::getId)
+            .collectList()
+            .flatMap(ids -> {
+                final Window current = window;
+                if (current == null || Arrays.equals(current.siteIds, ids.stream().mapToLong(Long::longValue).toArray())) {
+                    return Mono.empty();
+                }
+                log.info("The sites changed from {} to {}, the availability index is rebuilt", current.siteIds.length, ids.size());
+                return rebuild();
+            });
+    }
+
+    public boolean isLoaded() {
+        return window != null;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    //changes only with the dates of the site, a rebuild or a roll
+    public long getVersion(final Long siteId) {
+        return Math.max(baseVersion, siteVersions.getOrDefault(siteId, 0L));
+    }
+
+    public long getBookedNights() {
+        final Window current = window;
+        return current == null ? 0 : current.countBooked();
+    }
+
+    public boolean covers(final LocalDate start, final LocalDate end) {
+        Window current = window;
+        return current != null && current.contains(start.toEpochDay()) && current.contains(end.toEpochDay());
+    }
+
+    public boolean covers(final Long siteId, final LocalDate start, final LocalDate end) {
+        return covers(start, end) && hasSite(siteId);
+    }
+
+    public boolean hasSite(final Long siteId) {
+        Window current = window;
+        return current != null && current.row(siteId) >= 0;
+    }
+
+    public List<LocalDate> getAvailableDates(final Long siteId, final LocalDate start, final LocalDate end) {
+        final Window current = window;
+        final int row = current.row(siteId);
+        final long from = start.toEpochDay();
+        final long to = end.toEpochDay();
+        List<LocalDate> res = new ArrayList<>((int) (to - from + 1));
+        for (long day = from; day <= to; day++) {
+            if (!current.isSet(row, day)) {
+                res.add(LocalDate.ofEpochDay(day));
+            }
+        }
+        return res;
+    }
+
+    public boolean isAvailable(final Long siteId, final LocalDate start, final LocalDate end) {
+        final Window current = window;
+        final int row = current.row(siteId);
+        for (long day = start.toEpochDay(); day <= end.toEpochDay(); day++) {
+            if (current.isSet(row, day)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //one pass over all the sites: a site is available when none of its bits in the range is set
+    public List<Long> getAvailableSites(final LocalDate start, final LocalDate end) {
+        final Window current = window;
+        final int fromOffset = current.offset(start.toEpochDay());
+        final int toOffset = current.offset(end.toEpochDay());
+        final int firstWord = fromOffset >>> 6;
+        final int lastWord = toOffset >>> 6;
+        final long[] masks = new long[lastWord - firstWord + 1];
+        for (int w = firstWord; w <= lastWord; w++) {
+            masks[w - firstWord] = mask(w, fromOffset, toOffset);
+        }
+
+        List<Long> res = new ArrayList<>();
+        for (int row = 0; row < current.siteIds.length; row++) {
+            boolean free = true;
+            for (int w = firstWord; w <= lastWord && free; w++) {
+                free = (current.word(row, w) & masks[w - firstWord]) == 0;
+            }
+            if (free) {
+                res.add(current.siteIds[row]);
+            }
+        }
+        return res;
+    }
+
+    //the stays of `nights` free nights within the range, of the site or of all the sites when it is null, by start date then site id.
+    //The starts of a word of days are found for all the sites at once: a day starts a stay when its bit and the bits of the
+    //next nights are clear, so the booked words shifted by 1 to nights - 1 days are or-ed and the clear bits are the starts.
+    //The stays the filter rejects are skipped, the search stops at the limit
+    public List<Stay> findStays(final Long siteId,
+                                final LocalDate start,
+                                final LocalDate end,
+                                final int nights,
+                                final int limit,
+                                final BiPredicate<Long, LocalDate> filter) {
+        final Window current = window;
+        final int fromOffset = current.offset(start.toEpochDay());
+        final int toOffset = current.offset(end.toEpochDay()) - nights + 1;
+        final List<Stay> res = new ArrayList<>();
+        if (toOffset < fromOffset) {
+            return res;
+        }
+        final int[] rows = siteId == null ? IntStream.range(0, current.siteIds.length).toArray() : new int[] {current.row(siteId)};
+        final long[] starts = new long[rows.length];
+        for (int w = fromOffset >>> 6; w <= toOffset >>> 6; w++) {
+            final long mask = mask(w, fromOffset, toOffset);
+            long any = 0;
+            for (int i = 0; i < rows.length; i++) {
+                starts[i] = current.stayStarts(rows[i], w, nights) & mask;
+                any |= starts[i];
+            }
+            for (; any != 0; any &= any - 1) {
+                final long bit = any & -any;
+                final LocalDate stayStart = LocalDate.ofEpochDay(current.baseDay + ((long) w << 6) + Long.numberOfTrailingZeros(bit));
+                for (int i = 0; i < rows.length; i++) {
+                    if ((starts[i] & bit) == 0) {
+                        continue;
+                    }
+                    final long site = current.siteIds[rows[i]];
+                    if (filter.test(site, stayStart)) {
+                        res.add(new Stay(site, stayStart, stayStart.plusDays(nights - 1)));
+                        if (res.size() >= limit) {
+                            return res;
+                        }
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    //the bits of the word from the offset to the offset within the word
+    private static long mask(final int word, final int fromOffset, final int toOffset) {
+        long mask = -1L;
+        if (word == fromOffset >>> 6) {
+            mask &= -1L << fromOffset;
+        }
+        if (word == toOffset >>> 6) {
+            mask &= -1L >>> (WORD_BITS - 1 - (toOffset & (WORD_BITS - 1)));
+        }
+        return mask;
+    }
+
+    public void apply(final Collection<BookingDate> freedDates, final Collection<BookingDate> bookedDates) {
+        Change change = new Change(freedDates, bookedDates);
+        synchronized (lock) {
+            if (window != null) {
+                change.applyTo(window);
+            }
+            pending.forEach(changes -> changes.add(change));
+            version++;
+            freedDates.forEach(d -> siteVersions.put(d.getSiteId(), version));
+            bookedDates.forEach(d -> siteVersions.put(d.getSiteId(), version));
+            //published under the lock, so the subscribers see the changes in the order they are applied
+            changeFeed.publish(freedDates, bookedDates);
+        }
+    }
+
+    //applies the change only while the version of the site is the expected one, false when the site changed since
+    public boolean apply(final Long siteId,
+                         final long expectedVersion,
+                         final Collection<BookingDate> freedDates,
+                         final Collection<BookingDate> bookedDates) {
+        synchronized (lock) {
+            if (getVersion(siteId) != expectedVersion) {
+                return false;
+            }
+            apply(freedDates, bookedDates);
+            return true;
+        }
+    }
+
+    private static final class Change {
+        private final Collection<BookingDate> freedDates;
+        private final Collection<BookingDate> bookedDates;
+
+        private Change(Collection<BookingDate> freedDates, Collection<BookingDate> bookedDates) {
+            this.freedDates = freedDates;
+            this.bookedDates = bookedDates;
+        }
+
+        private void applyTo(Window target) {
+            freedDates.forEach(d -> target.set(d.getSiteId(), d.getBookedDate().toEpochDay(), false));
+            bookedDates.forEach(d -> target.set(d.getSiteId(), d.getBookedDate().toEpochDay(), true));
+        }
+    }
+
+    private static final class Window {
+        private final long baseDay;
+        private final int capacity;
+        private final int wordsPerSite;
+        //sorted, the position of a site id is its row in the words
+        private final long[] siteIds;
+        private final AtomicLongArray words;
+
+        private Window(long baseDay, int capacity, long[] siteIds) {
+            this.baseDay = baseDay;
+            this.capacity = capacity;
+            this.wordsPerSite = capacity / WORD_BITS;
+            this.siteIds = siteIds;
+            this.words = new AtomicLongArray(siteIds.length * wordsPerSite);
+        }
+
+        private boolean contains(long epochDay) {
+            return epochDay >= baseDay && epochDay < baseDay + capacity;
+        }
+
+        private int offset(long epochDay) {
+            return (int) (epochDay - baseDay);
+        }
+
+        private int row(Long siteId) {
+            return siteId == null ? -1 : Math.max(-1, Arrays.binarySearch(siteIds, siteId));
+        }
+
+        private long word(int row, int word) {
+            return words.get(row * wordsPerSite + word);
+        }
+
+        //bit i is set when the days i to i + nights - 1 of the word are free, the days past the window count as booked
+        private long stayStarts(int row, int word, int nights) {
+            final long next = word + 1 < wordsPerSite ? word(row, word + 1) : -1L;
+            final long booked = word(row, word);
+            long blocked = booked;
+            for (int shift = 1; shift < nights; shift++) {
+                blocked |= (booked >>> shift) | (next << (WORD_BITS - shift));
+            }
+            return ~blocked;
+        }
+
+        private boolean isSet(int row, long epochDay) {
+            int offset = offset(epochDay);
+            return (word(row, offset >>> 6) & (1L << offset)) != 0;
+        }
+
+        //only called while holding the index lock, so a plain read-modify-write is enough
+        private void set(Long siteId, long epochDay, boolean booked) {
+            int row = row(siteId);
+            if (row < 0 || !contains(epochDay)) {
+                return;
+            }
+            set(row, epochDay, booked);
+        }
+
+        private void set(int row, long epochDay, boolean booked) {
+            int offset = offset(epochDay);
+            int index = row * wordsPerSite + (offset >>> 6);
+            long word = words.get(index);
+            words.set(index, booked ? word | (1L << offset) : word & ~(1L << offset));
+        }
+
+        private long countBooked() {
+            long booked = 0;
+            for (int i = 0; i < words.length(); i++) {
+                booked += Long.bitCount(words.get(i));
+            }
+            return booked;
+        }
+
+        private Window shiftTo(long newBaseDay) {
+            Window shifted = new Window(newBaseDay, capacity, siteIds);
+            for (int row = 0; row < siteIds.length; row++) {
+                for (long day = newBaseDay; day < baseDay + capacity; day++) {
+                    if (isSet(row, day)) {
+                        shifted.set(row, day, true);
+                    }
+                }
+            }
+            return shifted;
+        }
+    }
+}
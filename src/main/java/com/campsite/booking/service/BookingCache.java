@@ -0,0 +1,110 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.entity.BookingDate;
+import com.campsite.booking.filter.ReadRoute;
+import com.campsite.booking.repository.BookingDateStorage;
+import com.campsite.booking.repository.BookingRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The bookings by their booking ID, bounded by `campsite.booking-cache.max-size`(W-TinyLFU eviction).
+ * The date range of a booking is loaded when it is first asked for, and cached with the booking.
+ * The callers get copies, so a booking they change is not seen by others before it is committed.
+ * The booking service invalidates a booking once its update or cancellation is committed,
+ * the update and the cancellation read the booking they write from the primary, never from the cache.
+ * The bookings loaded from a read replica are not cached.
+ */
+@Component
+public class BookingCache {
+    private final BookingRepository bookingRepo;
+    private final BookingDateStorage bookingDateStorage;
+    private final Cache<UUID, Booking> bookings;
+    //a load which overlaps an invalidation may have read the old booking, it is not cached
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public BookingCache(BookingRepository bookingRepo,
+                        BookingDateStorage bookingDateStorage,
+                        @Value("${campsite.booking-cache.max-size:10000}") long maxSize,
+                        @Value("${campsite.booking-cache.ttl:10m}") Duration ttl) {
+        this.bookingRepo = bookingRepo;
+        this.bookingDateStorage = bookingDateStorage;
+        this.bookings = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(ttl)
+            .build();
+    }
+
+    //the booking with its start and end, the dates are loaded once and cached with the booking
+    public Mono<Booking> getWithDates(final UUID bookingId) {
+        return get(bookingId, id -> load(id).flatMap(this::loadDates))
+            .flatMap(booking -> booking.getStart() != null ? Mono.just(booking) : cache(bookingId, invalidations.get(), loadDates(booking)));
+    }
+
+    public void invalidate(final UUID bookingId) {
+        invalidations.incrementAndGet();
+        bookings.invalidate(bookingId);
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        bookings.invalidateAll();
+    }
+
+    private Mono<Booking> get(final UUID bookingId, final Function<UUID, Mono<Booking>> loader) {
+        return Mono.defer(() -> {
+            final Booking cached = bookings.getIfPresent(bookingId);
+            if (cached != null) {
+                return Mono.just(copy(cached));
+            }
+            return cache(bookingId, invalidations.get(), loader.apply(bookingId));
+        });
+    }
+
+    //a booking read from the replica may be behind the primary, it is not cached
+    private Mono<Booking> cache(final UUID bookingId, final long loadedAt, final Mono<Booking> load) {
+        return Mono.deferContextual(context -> ReadRoute.isReplica(context) ? load : load.doOnNext(booking -> {
+            if (invalidations.get() == loadedAt) {
+                bookings.put(bookingId, copy(booking));
+            }
+        }));
+    }
+
+    private Mono<Booking> load(final UUID bookingId) {
+        return bookingRepo.findBookingByBookingId(bookingId);
+    }
+
+    private Mono<Booking> loadDates(final Booking booking) {
+        return bookingDateStorage.findBookingDates(booking.getId())
+            .collectList()
+            .map(dates -> withRange(booking, dates));
+    }
+
+    private Booking withRange(final Booking booking, final List<BookingDate> dates) {
+        if (!dates.isEmpty()) {
+            booking.setStart(dates.get(0).getBookedDate());
+            booking.setEnd(dates.get(dates.size() - 1).getBookedDate());
+        }
+        return booking;
+    }
+
+    private static Booking copy(final Booking booking) {
+        return new Booking(booking.getId(),
+                           booking.getBookingId(),
+                           booking.getSiteId(),
+                           booking.getName(),
+                           booking.getEmail(),
+                           booking.getStart(),
+                           booking.getEnd());
+    }
+}
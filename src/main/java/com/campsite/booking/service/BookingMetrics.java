@@ -0,0 +1,96 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.exception.BookingConflictException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Service level metrics: a timer with percentile histogram per operation and outcome,
+ * counters of the conflicts, rejected requests and bookings not found, and the booked nights of the availability index.
+ * The R2DBC pool gauges(r2dbc.pool.*) are registered by the actuator.
+ */
+@Component
+public class BookingMetrics {
+    static final String SUCCESS = "success";
+    static final String CONFLICT = "conflict";
+    static final String REJECTED = "rejected";
+    static final String NOT_FOUND = "not_found";
+    static final String ERROR = "error";
+    static final String CANCELLED = "cancelled";
+    private static final Map<String, String> COUNTER_NAMES = Map.of(CONFLICT, "booking.conflicts",
+                                                                    REJECTED, "booking.rejections",
+                                                                    NOT_FOUND, "booking.not.found");
+
+    private final MeterRegistry registry;
+    //the meters by operation(and outcome), so a request does not build them again
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public BookingMetrics(MeterRegistry registry, AvailabilityIndex availabilityIndex) {
+        this.registry = registry;
+        Gauge.builder("booking.nights.booked", availabilityIndex, AvailabilityIndex::getBookedNights)
+            .description("Booked nights of all the sites in the availability index horizon")
+            .register(registry);
+    }
+
+    //times the operation from subscription to its end, the outcome tag is taken from the error
+    public <T> Mono<T> timed(final String operation, final Supplier<Mono<T>> action) {
+        return Mono.defer(() -> {
+            final Timer.Sample sample = Timer.start(registry);
+            return Mono.defer(action)
+                .doOnSuccess(value -> sample.stop(timer(operation, SUCCESS)))
+                .doOnError(e -> sample.stop(timer(operation, count(operation, e))))
+                .doOnCancel(() -> sample.stop(timer(operation, CANCELLED)));
+        });
+    }
+
+    private String count(final String operation, final Throwable error) {
+        final String outcome = getOutcome(error);
+        if (!ERROR.equals(outcome)) {
+            counter(operation, outcome).increment();
+        }
+        return outcome;
+    }
+
+    private String getOutcome(final Throwable error) {
+        if (error instanceof BookingConflictException) {
+            return CONFLICT;
+        }
+        if (error instanceof ResponseStatusException) {
+            HttpStatus status = ((ResponseStatusException) error).getStatus();
+            if (status == HttpStatus.NOT_FOUND) {
+                return NOT_FOUND;
+            }
+            if (status.is4xxClientError()) {
+                return REJECTED;
+            }
+        }
+        return ERROR;
+    }
+
+    private Timer timer(final String operation, final String outcome) {
+        return timers.computeIfAbsent(operation + '.' + outcome, key -> Timer.builder("booking.operation")
+            .description("Booking service operations")
+            .tag("operation", operation)
+            .tag("outcome", outcome)
+            .publishPercentileHistogram()
+            .register(registry));
+    }
+
+    private Counter counter(final String operation, final String outcome) {
+        return counters.computeIfAbsent(operation + '.' + outcome, key -> Counter.builder(COUNTER_NAMES.get(outcome))
+            .description("Booking service operations which ended by " + outcome)
+            .tag("operation", operation)
+            .register(registry));
+    }
+}
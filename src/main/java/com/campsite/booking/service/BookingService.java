@@ -1,120 +1,473 @@
 package com.campsite.booking.service;
 
+import com.campsite.booking.dto.AvailabilityChange;
 import com.campsite.booking.dto.AvailabilityQueryResponse;
+import com.campsite.booking.dto.BookingDetailsResponse;
 import com.campsite.booking.dto.BookingRequest;
 import com.campsite.booking.dto.BookingResponse;
 import com.campsite.booking.dto.DeletionResponse;
+import com.campsite.booking.dto.HoldRequest;
+import com.campsite.booking.dto.HoldResponse;
+import com.campsite.booking.dto.SiteAvailabilityResponse;
+import com.campsite.booking.dto.Stay;
+import com.campsite.booking.dto.StaySearchResponse;
 import com.campsite.booking.dto.UpdateRequest;
 import com.campsite.booking.entity.Booking;
 import com.campsite.booking.entity.BookingDate;
-import com.campsite.booking.repository.BookingDateRepository;
+import com.campsite.booking.entity.Site;
+import com.campsite.booking.exception.BookingConflictException;
+import com.campsite.booking.exception.BookingException;
+import com.campsite.booking.exception.BookingNotFoundException;
+import com.campsite.booking.exception.InvalidBookingException;
+import com.campsite.booking.filter.CorrelationId;
+import com.campsite.booking.filter.ReadRoute;
+import com.campsite.booking.repository.BookingDateStorage;
 import com.campsite.booking.repository.BookingRepository;
+import com.campsite.booking.repository.SiteRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple2;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class BookingService {
+    //the free dates returned with a conflict are searched up to this many days around the requested dates
+    private static final int NEARBY_DAYS = 3;
+    //the longest stay which can be booked
+    private static final int MAX_STAY_NIGHTS = 3;
+
     private final BookingRepository bookingRepo;
-    private final BookingDateRepository bookingDateRepo;
+    private final BookingDateStorage bookingDateStorage;
+    private final SiteRepository siteRepo;
+    private final AvailabilityIndex availabilityIndex;
+    private final BookingWriter bookingWriter;
+    private final AvailabilityChangeFeed changeFeed;
+    private final BookingMetrics metrics;
+    private final IdempotencyCache idempotencyCache;
+    private final BookingCache bookingCache;
+    private final DateHolds dateHolds;
+    private final DateSequencer sequencer;
+    //the versions count from 1 again after a restart, and every instance counts its own: the tags start with an id drawn
+    //at startup, so a tag of another instance, or of this one before a restart, never matches
+    private final String instanceTag = Long.toHexString(ThreadLocalRandom.current().nextLong());
 
     @Autowired
-    public BookingService(BookingRepository bookingRepo, BookingDateRepository bookingDateRepo) {
+    public BookingService(BookingRepository bookingRepo,
+                          BookingDateStorage bookingDateStorage,
+                          SiteRepository siteRepo,
+                          AvailabilityIndex availabilityIndex,
+                          BookingWriter bookingWriter,
+                          AvailabilityChangeFeed changeFeed,
+                          BookingMetrics metrics,
+                          IdempotencyCache idempotencyCache,
+                          BookingCache bookingCache,
+                          DateHolds dateHolds,
+                          DateSequencer sequencer) {
         this.bookingRepo = bookingRepo;
-        this.bookingDateRepo = bookingDateRepo;
+        this.bookingDateStorage = bookingDateStorage;
+        this.siteRepo = siteRepo;
+        this.availabilityIndex = availabilityIndex;
+        this.bookingWriter = bookingWriter;
+        this.changeFeed = changeFeed;
+        this.metrics = metrics;
+        this.idempotencyCache = idempotencyCache;
+        this.bookingCache = bookingCache;
+        this.dateHolds = dateHolds;
+        this.sequencer = sequencer;
     }
 
-    @Transactional(readOnly = true)
-    public Mono<AvailabilityQueryResponse> getAvailability(final LocalDate start, final LocalDate end) {
-        LocalDate maxEndDate = LocalDate.now().plusMonths(1);
-        LocalDate tomorrow = LocalDate.now().plusDays(1);
+    //served from the in-memory index once it is loaded, no transaction is opened for the read
+    public Mono<AvailabilityQueryResponse> getAvailability(final Long siteId, final LocalDate start, final LocalDate end) {
+        return metrics.timed("availability", () -> queryAvailability(siteId, start, end));
+    }
 
-        LocalDate startDate = start.isBefore(tomorrow) ? tomorrow : start.plusDays(0);
-        LocalDate endDate = (end == null || end.isAfter(maxEndDate)) ? maxEndDate : end.plusDays(0);
+    private Mono<AvailabilityQueryResponse> queryAvailability(final Long siteId, final LocalDate start, final LocalDate end) {
+        final LocalDate startDate = getQueryStartDate(start);
+        final LocalDate endDate = getQueryEndDate(end);
 
-        log.info(String.format("Query site availability from %s to %s", startDate, endDate));
+        log.info("Query availability of site {} from {} to {}", siteId, startDate, endDate);
+        validateQueryDates(startDate, endDate);
 
-        if (startDate.isAfter(endDate)) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Start date need to be early or the same as the end date.");
+        if (availabilityIndex.covers(siteId, startDate, endDate)) {
+            return Mono.just(new AvailabilityQueryResponse(siteId, getAvailableDates(siteId, startDate, endDate)));
         }
 
-        return bookingDateRepo.findBookingDateByBookedDateBetweenOrderByBookedDateAsc(startDate, endDate)
+        //the reads the index does not cover may be served by the read replica
+        return ReadRoute.replica(checkSite(siteId)
+            .thenMany(bookingDateStorage.findBookedDates(siteId, startDate, endDate))
             .collectList()
-            .map(bookedDates -> getAvailabilityQueryResponse(startDate, endDate, bookedDates));
+            .map(bookedDates -> getAvailabilityQueryResponse(siteId, startDate, endDate, bookedDates)));
+    }
+
+    //the dates free in the index which are not held
+    private List<LocalDate> getAvailableDates(final Long siteId, final LocalDate start, final LocalDate end) {
+        return dateHolds.withoutClaimed(siteId, availabilityIndex.getAvailableDates(siteId, start, end));
+    }
+
+    //the entity tag of the availability responses: the instance, the index and holds versions and the day, which moves the query window.
+    //The tag of a site changes only with that site, the tag of all the sites(siteId null) with any of them.
+    //null until the index is loaded, and for the sites it does not have: the responses from the DB are not tagged
+    public String getAvailabilityETag(final Long siteId) {
+        if (!availabilityIndex.isLoaded()) {
+            return null;
+        }
+        if (siteId == null) {
+            return String.format("\"%s-%d-%d-%d\"", instanceTag, availabilityIndex.getVersion(), dateHolds.getVersion(), LocalDate.now().toEpochDay());
+        }
+        if (!availabilityIndex.hasSite(siteId)) {
+            return null;
+        }
+        return String.format("\"%s-%d-%d-%d-%d\"", instanceTag, siteId, availabilityIndex.getVersion(siteId), dateHolds.getVersion(siteId), LocalDate.now().toEpochDay());
+    }
+
+    //throws the error the availability query of the dates would get
+    public void validateAvailabilityQuery(final LocalDate start, final LocalDate end) {
+        validateQueryDates(getQueryStartDate(start), getQueryEndDate(end));
+    }
+
+    //throws the error the stay search would get
+    public void validateStayQuery(final int nights, final LocalDate start, final LocalDate end, final Integer limit) {
+        validateAvailabilityQuery(start, end);
+        validateStayQuery(nights, limit);
     }
 
-    private AvailabilityQueryResponse getAvailabilityQueryResponse(final LocalDate start,
-                                                                   final LocalDate end,
-                                                                   final List<BookingDate> bookedDates) {
+    public Flux<AvailabilityChange> getAvailabilityChanges(final Long siteId) {
+        log.info("Stream availability changes of site {}", siteId == null ? "all" : siteId);
+        return changeFeed.getChanges(siteId);
+    }
+
+    AvailabilityQueryResponse getAvailabilityQueryResponse(final Long siteId,
+                                                           final LocalDate start,
+                                                           final LocalDate end,
+                                                           final List<BookingDate> bookedDates) {
         final Set<LocalDate> bookedDatesSet = bookedDates.stream().map(BookingDate::getBookedDate).collect(Collectors.toSet());
         final List<LocalDate> availableDates = start.datesUntil(end.plusDays(1))
             .filter(d -> !bookedDatesSet.contains(d))
             .collect(Collectors.toList());
-        return new AvailabilityQueryResponse(availableDates);
+        return new AvailabilityQueryResponse(siteId, dateHolds.withoutClaimed(siteId, availableDates));
     }
 
-    @Transactional(propagation = Propagation.REQUIRED)
+    //the sites which are free on every date of the range, all the sites are checked in one pass
+    public Mono<SiteAvailabilityResponse> getAvailableSites(final LocalDate start, final LocalDate end) {
+        return metrics.timed("available_sites", () -> queryAvailableSites(start, end));
+    }
+
+    private Mono<SiteAvailabilityResponse> queryAvailableSites(final LocalDate start, final LocalDate end) {
+        final LocalDate startDate = getQueryStartDate(start);
+        final LocalDate endDate = getQueryEndDate(end);
+
+        log.info("Query available sites from {} to {}", startDate, endDate);
+        validateQueryDates(startDate, endDate);
+
+        if (availabilityIndex.covers(startDate, endDate)) {
+            return Mono.just(new SiteAvailabilityResponse(startDate, endDate, withoutHeld(availabilityIndex.getAvailableSites(startDate, endDate), startDate, endDate)));
+        }
+
+        return ReadRoute.replica(siteRepo.findAll(Sort.by("id")).map(Site::getId).collectList()
+            .zipWith(bookingDateStorage.findBookedDates(startDate, endDate)
+                         .map(BookingDate::getSiteId)
+                         .collect(Collectors.toSet()))
+            .map(sitesWithBookedSites -> new SiteAvailabilityResponse(
+                startDate,
+                endDate,
+                withoutHeld(sitesWithBookedSites.getT1().stream()
+                                .filter(id -> !sitesWithBookedSites.getT2().contains(id))
+                                .collect(Collectors.toList()),
+                            startDate,
+                            endDate))));
+    }
+
+    //the earliest stays of `nights` nights within the range, of the site or of all the sites, all of them without a limit.
+    //The starts are found on the words of the index, the held nights are skipped
+    public Mono<StaySearchResponse> findStays(final Long siteId,
+                                              final int nights,
+                                              final LocalDate start,
+                                              final LocalDate end,
+                                              final Integer limit) {
+        return metrics.timed("stays", () -> queryStays(siteId, nights, start, end, limit));
+    }
+
+    private Mono<StaySearchResponse> queryStays(final Long siteId,
+                                                final int nights,
+                                                final LocalDate start,
+                                                final LocalDate end,
+                                                final Integer limit) {
+        final LocalDate startDate = getQueryStartDate(start);
+        final LocalDate endDate = getQueryEndDate(end);
+
+        log.info("Query stays of {} nights of site {} from {} to {}", nights, siteId == null ? "all" : siteId, startDate, endDate);
+        validateQueryDates(startDate, endDate);
+        validateStayQuery(nights, limit);
+        final int maxStays = limit == null ? Integer.MAX_VALUE : limit;
+        final BiPredicate<Long, LocalDate> notHeld = (site, stayStart) -> !dateHolds.isClaimed(site, stayStart, stayStart.plusDays(nights - 1));
+
+        if (siteId == null ? availabilityIndex.covers(startDate, endDate) : availabilityIndex.covers(siteId, startDate, endDate)) {
+            return Mono.just(new StaySearchResponse(nights, startDate, endDate,
+                                                    availabilityIndex.findStays(siteId, startDate, endDate, nights, maxStays, notHeld)));
+        }
+
+        final Mono<List<Long>> siteIds = siteId == null ?
+            siteRepo.findAll(Sort.by("id")).map(Site::getId).collectList() :
+            checkSite(siteId).map(List::of);
+        final Flux<BookingDate> bookedDates = siteId == null ?
+            bookingDateStorage.findBookedDates(startDate, endDate) :
+            bookingDateStorage.findBookedDates(siteId, startDate, endDate);
+        return ReadRoute.replica(siteIds.zipWith(bookedDates.collectList())
+            .map(sitesWithBookedDates -> new StaySearchResponse(
+                nights,
+                startDate,
+                endDate,
+                getStays(sitesWithBookedDates.getT1(), sitesWithBookedDates.getT2(), startDate, endDate, nights, maxStays, notHeld))));
+    }
+
+    //the stays by start date then site id, from the booked dates read from the DB
+    private static List<Stay> getStays(final List<Long> siteIds,
+                                       final List<BookingDate> bookedDates,
+                                       final LocalDate start,
+                                       final LocalDate end,
+                                       final int nights,
+                                       final int limit,
+                                       final BiPredicate<Long, LocalDate> filter) {
+        final Map<Long, Set<LocalDate>> booked = bookedDates.stream()
+            .collect(Collectors.groupingBy(BookingDate::getSiteId, Collectors.mapping(BookingDate::getBookedDate, Collectors.toSet())));
+        final List<Stay> res = new ArrayList<>();
+        for (LocalDate stayStart = start; !stayStart.plusDays(nights - 1).isAfter(end); stayStart = stayStart.plusDays(1)) {
+            for (Long siteId : siteIds) {
+                final LocalDate stayEnd = stayStart.plusDays(nights - 1);
+                final Set<LocalDate> siteBooked = booked.getOrDefault(siteId, Set.of());
+                final boolean free = stayStart.datesUntil(stayEnd.plusDays(1)).noneMatch(siteBooked::contains);
+                if (free && filter.test(siteId, stayStart)) {
+                    res.add(new Stay(siteId, stayStart, stayEnd));
+                    if (res.size() >= limit) {
+                        return res;
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    private void validateStayQuery(final int nights, final Integer limit) {
+        if (nights < 1 || nights > MAX_STAY_NIGHTS) {
+            throw new InvalidBookingException(String.format("A stay is 1 to %d nights, but %d nights are requested", MAX_STAY_NIGHTS, nights));
+        }
+        if (limit != null && limit < 1) {
+            throw new InvalidBookingException(String.format("The limit of the stays must be positive, but it is %d", limit));
+        }
+    }
+
+    private List<Long> withoutHeld(final List<Long> siteIds, final LocalDate start, final LocalDate end) {
+        return siteIds.stream().filter(id -> !dateHolds.isClaimed(id, start, end)).collect(Collectors.toList());
+    }
+
+    private LocalDate getQueryStartDate(final LocalDate start) {
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        return start.isBefore(tomorrow) ? tomorrow : start.plusDays(0);
+    }
+
+    private LocalDate getQueryEndDate(final LocalDate end) {
+        LocalDate maxEndDate = LocalDate.now().plusMonths(1);
+        return (end == null || end.isAfter(maxEndDate)) ? maxEndDate : end.plusDays(0);
+    }
+
+    private void validateQueryDates(final LocalDate startDate, final LocalDate endDate) {
+        if (startDate.isAfter(endDate)) {
+            throw new InvalidBookingException("Start date need to be early or the same as the end date.");
+        }
+    }
+
+    private Mono<Long> checkSite(final Long siteId) {
+        if (availabilityIndex.hasSite(siteId)) {
+            return Mono.just(siteId);
+        }
+        return siteRepo.existsById(siteId)
+            .filter(exists -> exists)
+            .map(exists -> siteId)
+            .switchIfEmpty(Mono.error(() -> new InvalidBookingException(String.format("Site %s does not exist", siteId))));
+    }
+
+    //holds the dates for a checkout: they are not available to other bookings until the booking with the hold token, or the expiry
+    public Mono<HoldResponse> hold(final Mono<HoldRequest> request) {
+        return metrics.timed("hold", () -> request
+            .flatMap(req -> {
+                validateBookingDates(req.getStart(), req.getEnd());
+                final Long siteId = (req.getSiteId() == null) ? Site.DEFAULT_SITE_ID : req.getSiteId();
+                //the nights are claimed before they are checked, a hold of booked nights gives its claim back
+                return checkSite(siteId)
+                    .then(Mono.fromCallable(() -> dateHolds.hold(siteId, getNights(req.getStart(), req.getEnd()))))
+                    .switchIfEmpty(Mono.error(() -> getConflict(siteId, req.getStart(), req.getEnd())))
+                    .flatMap(hold -> isBooked(siteId, req.getStart(), req.getEnd())
+                        .map(booked -> {
+                            if (booked) {
+                                throw getConflict(siteId, req.getStart(), req.getEnd());
+                            }
+                            return new HoldResponse(hold.getToken(), siteId, req.getStart(), req.getEnd(), hold.getExpiresAt());
+                        })
+                        .doOnError(e -> dateHolds.release(hold.getToken()))
+                        .doOnCancel(() -> dateHolds.release(hold.getToken())));
+            })
+            .doOnEach(CorrelationId.onNext(hold -> log.info("Hold site {} from {} to {}: {}",
+                                                            hold.getSiteId(), hold.getStart(), hold.getEnd(), hold.getHoldToken()))));
+    }
+
+    public Mono<Void> releaseHold(final UUID holdToken) {
+        return Mono.fromRunnable(() -> {
+            if (!dateHolds.release(holdToken)) {
+                throw new BookingException(HttpStatus.NOT_FOUND, "Hold is not found");
+            }
+        });
+    }
+
+    //the nights of a hold are claimed before this check, and a booking keeps its claim until the index and the DB have its nights:
+    //a booking of the held nights either fails on the claim, or was written before and is booked here
+    private Mono<Boolean> isBooked(final Long siteId, final LocalDate start, final LocalDate end) {
+        if (availabilityIndex.covers(siteId, start, end)) {
+            return Mono.just(!availabilityIndex.isAvailable(siteId, start, end));
+        }
+        return bookingDateStorage.findBookedDates(siteId, start, end).hasElements();
+    }
+
+    //retries and concurrent duplicates of a request with the same idempotency key get the response of its first booking
+    public Mono<BookingResponse> book(final String idempotencyKey, final Mono<BookingRequest> request) {
+        return request.flatMap(req -> idempotencyCache.book(idempotencyKey, req, r -> book(Mono.just(r))));
+    }
+
+    //the request is validated and checked against the known booked dates before the transaction of the writer is opened
     public Mono<BookingResponse> book(Mono<BookingRequest> request) {
-        return request
-            .doOnNext(req -> validateBookingDates(req.getStart(), req.getEnd()))
-            .map(this::getBooking)
-            .flatMap(booking -> bookingRepo.save(booking))
-            .flatMap(this::saveBookingDates)
-            .map(bookingId -> new BookingResponse(bookingId));
+        return metrics.timed("book", () -> request
+            .flatMap(req -> checkBooking(req)
+                .flatMap(booking -> sequencedInsert(booking, req.getHoldToken())
+                    .onErrorMap(DataIntegrityViolationException.class, e -> getConflict(booking))))
+            .map(bookingId -> new BookingResponse(bookingId)));
     }
 
-    private Booking getBooking(final BookingRequest req) {
-        return new Booking(req.getName(), req.getEmail(), UUID.randomUUID(), req.getStart(), req.getEnd());
+    //the writes sharing a night run one after the other, a later one is checked again against the index the earlier ones updated,
+    //so a losing booking is rejected without a write. The claim is released once the index has the booked dates
+    Mono<UUID> sequencedInsert(final Booking booking, final UUID holdToken) {
+        return sequencer.sequence(booking.getSiteId(), booking.getStart(), booking.getEnd(), () -> {
+            checkBookedDates(booking.getSiteId(), booking.getStart(), booking.getEnd());
+            final DateHolds.Claim claim = claim(booking, holdToken);
+            final Mono<UUID> insert = bookingWriter.locksNights() ?
+                bookingWriter.insertLocked(booking).switchIfEmpty(Mono.error(() -> getConflict(booking))) :
+                bookingWriter.insert(booking);
+            return insert.doFinally(signal -> claim.release());
+        });
     }
 
-    private Mono<UUID> saveBookingDates(final Booking booking) {
-        List<BookingDate> bookingDates = getBookingDates(booking.getId(), booking.getStart(), booking.getEnd());
-        return bookingDateRepo.saveAll(bookingDates).collectList().map( dates -> booking.getBookingId());
+    //the booking of a request which passed the date rules, the site check and the check against the known booked dates
+    Mono<Booking> checkBooking(final BookingRequest req) {
+        return Mono.fromCallable(() -> {
+                validateBookingDates(req.getStart(), req.getEnd());
+                return getBooking(req);
+            })
+            .flatMap(booking -> checkSite(booking.getSiteId()).thenReturn(booking))
+            .doOnNext(booking -> checkBookedDates(booking.getSiteId(), booking.getStart(), booking.getEnd()));
+    }
+
+    //the nights of the booking claimed while it is written: the nights of its hold, or free nights which are not held by others
+    DateHolds.Claim claim(final Booking booking, final UUID holdToken) {
+        final List<LocalDate> nights = getNights(booking.getStart(), booking.getEnd());
+        if (holdToken != null) {
+            return dateHolds.take(holdToken, booking.getSiteId(), nights);
+        }
+        final DateHolds.Claim claim = dateHolds.claim(booking.getSiteId(), nights);
+        if (claim == null) {
+            throw getConflict(booking);
+        }
+        return claim;
+    }
+
+    private static List<LocalDate> getNights(final LocalDate start, final LocalDate end) {
+        return start.datesUntil(end.plusDays(1)).collect(Collectors.toList());
+    }
+
+    //fails fast when the index knows one of the dates is booked, the unique constraint still guards the dates it does not know
+    private void checkBookedDates(final Long siteId, final LocalDate start, final LocalDate end) {
+        if (availabilityIndex.covers(siteId, start, end) && !availabilityIndex.isAvailable(siteId, start, end)) {
+            throw getConflict(siteId, start, end);
+        }
     }
 
-    private List<BookingDate> getBookingDates(final Long bookingId, final LocalDate start, final LocalDate end) {
+    BookingConflictException getConflict(final Booking booking) {
+        return getConflict(booking.getSiteId(), booking.getStart(), booking.getEnd());
+    }
+
+    private BookingConflictException getConflict(final Long siteId, final LocalDate start, final LocalDate end) {
+        final LocalDate from = getQueryStartDate(start.minusDays(NEARBY_DAYS));
+        final LocalDate to = getQueryEndDate(end.plusDays(NEARBY_DAYS));
+        final List<LocalDate> availableDates = availabilityIndex.covers(siteId, from, to) ?
+            getAvailableDates(siteId, from, to) :
+            List.of();
+        return new BookingConflictException(siteId, start, end, availableDates);
+    }
+
+    private Booking getBooking(final BookingRequest req) {
+        final Long siteId = (req.getSiteId() == null) ? Site.DEFAULT_SITE_ID : req.getSiteId();
+        return new Booking(req.getName(), req.getEmail(), siteId, UUID.randomUUID(), req.getStart(), req.getEnd());
+    }
+
+    static List<BookingDate> getBookingDates(final Long bookingId, final Long siteId, final LocalDate start, final LocalDate end) {
         List<BookingDate> res = new ArrayList<>();
-        start.datesUntil(end.plusDays(1)).forEach( d -> res.add(new BookingDate(bookingId, d)) );
+        start.datesUntil(end.plusDays(1)).forEach( d -> res.add(new BookingDate(bookingId, siteId, d)) );
         return res;
     }
 
-    private void validateBookingDates(final LocalDate start, final LocalDate end) {
+    void validateBookingDates(final LocalDate start, final LocalDate end) {
         LocalDate now = LocalDate.now();
         if (start.isBefore(now.plusDays(1))) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-                                              String.format("The campsite can be reserved minimum 1 day(s) ahead of arrival, but you requested on %s", start));
+            throw new InvalidBookingException(String.format("The campsite can be reserved minimum 1 day(s) ahead of arrival, but you requested on %s", start));
         }
         if (end.isAfter(now.plusMonths(1))) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-                                              String.format("The campsite can be reserved up to 1 month in advance, but you requested on %s", start));
+            throw new InvalidBookingException(String.format("The campsite can be reserved up to 1 month in advance, but you requested on %s", start));
         }
         if (start.isAfter(end) || start.plusDays(2).isBefore(end)) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-                                              String.format("Campsite can be reserved for max 3 days, but you requested start date is %s, and end date is %s", start, end));
+            throw new InvalidBookingException(String.format("Campsite can be reserved for max 3 days, but you requested start date is %s, and end date is %s", start, end));
         }
     }
 
+    public Mono<BookingDetailsResponse> get(final UUID id) {
+        return metrics.timed("get", () -> ReadRoute.replica(bookingCache.getWithDates(id))
+            .switchIfEmpty(Mono.error(BookingNotFoundException::new))
+            .map(booking -> new BookingDetailsResponse(booking.getBookingId(),
+                                                       booking.getSiteId(),
+                                                       booking.getName(),
+                                                       booking.getEmail(),
+                                                       booking.getStart(),
+                                                       booking.getEnd())));
+    }
+
+    //the booking an update or cancellation writes is read and locked in its transaction on the primary: the cached copy may be
+    //older than a change or a cancellation made by another instance
+    private Mono<Booking> lockBooking(final UUID id) {
+        return bookingRepo.lockBookingByBookingId(id)
+            .switchIfEmpty(Mono.error(BookingNotFoundException::new));
+    }
+
     @Transactional(propagation = Propagation.REQUIRED)
     public Mono<BookingResponse> update(final UUID id, final Mono<UpdateRequest> request) {
-        return bookingRepo.findBookingByBookingId(id)
-            .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "Booking is not found")))
+        return metrics.timed("update", () -> lockBooking(id)
             .zipWith(request)
             .flatMap(this::updateBookingAndBookingDates)
-            .map(bookingId -> new BookingResponse(bookingId));
+            .flatMap(bookingId -> TransactionHooks.afterCommit(() -> bookingCache.invalidate(id)).thenReturn(bookingId))
+            .map(bookingId -> new BookingResponse(bookingId)));
     }
 
     private Mono<? extends UUID> updateBookingAndBookingDates(Tuple2<Booking,UpdateRequest> bookingWithUpdate) {
@@ -129,37 +482,93 @@ public class BookingService {
             booking.setEmail(update.getEmail());
             bookingUpdated = true;
         }
+        final boolean siteChanged = update.getSiteId() != null && !update.getSiteId().equals(booking.getSiteId());
+        if (siteChanged) {
+            booking.setSiteId(update.getSiteId());
+            bookingUpdated = true;
+        }
 
         final LocalDate updateStart = update.getStart();
         final LocalDate updateEnd = update.getEnd();
         if (bookingUpdated) {
-            return bookingRepo.save(booking).flatMap(updatedBooking -> updateBookingDates(updatedBooking, updateStart, updateEnd));
+            return checkSite(booking.getSiteId())
+                .then(bookingRepo.save(booking))
+                .flatMap(updatedBooking -> updateBookingDates(updatedBooking, updateStart, updateEnd, siteChanged));
         }
         else {
-            return updateBookingDates(booking, updateStart, updateEnd);
+            return updateBookingDates(booking, updateStart, updateEnd, false);
         }
     }
 
-    private Mono<UUID> updateBookingDates(final Booking booking, final LocalDate newStart, final LocalDate newEnd) {
-        if (newStart != null || newEnd != null) {
-            //need to update booking dates: old dates are deleted, and new dates are inserted.
-            return bookingDateRepo.findBookingDateByBookingIdOrderByBookedDateAsc(booking.getId())
+    private Mono<UUID> updateBookingDates(final Booking booking,
+                                          final LocalDate newStart,
+                                          final LocalDate newEnd,
+                                          final boolean siteChanged) {
+        if (newStart != null || newEnd != null || siteChanged) {
+            //need to update booking dates: the dates which are not booked any more are deleted, and the new ones are inserted.
+            return bookingDateStorage.findBookingDates(booking.getId())
                 .collectList()
-                .map(dates -> getUpdatedBookingDates(booking, dates, newStart, newEnd))
-                .flatMap(updatedDate -> deleteOldThenStoreNewBookingDates(updatedDate, booking));
+                .filter(dates -> !dates.isEmpty())
+                .switchIfEmpty(Mono.error(BookingNotFoundException::new))
+                .flatMap(dates -> storeChangedBookingDates(dates,
+                                                           getUpdatedBookingDates(booking, dates, newStart, newEnd),
+                                                           booking));
         }
         else {
             return Mono.just(booking.getBookingId());
         }
     }
 
-    private Mono<UUID> deleteOldThenStoreNewBookingDates(final List<BookingDate> newBookingDates, final Booking booking) {
-        return bookingDateRepo.deleteAllByBookingId(booking.getId())
-            .thenMany(bookingDateRepo.saveAll(newBookingDates))
-            .collectList()
-            .map(dates -> booking.getBookingId());
+    //only the difference between the old and new dates is written, the dates kept by the update are not touched
+    private Mono<UUID> storeChangedBookingDates(final List<BookingDate> oldBookingDates,
+                                                final List<BookingDate> newBookingDates,
+                                                final Booking booking) {
+        final List<BookingDate> removedDates = getDatesNotIn(oldBookingDates, newBookingDates);
+        final List<BookingDate> addedDates = getDatesNotIn(newBookingDates, oldBookingDates);
+        if (removedDates.isEmpty() && addedDates.isEmpty()) {
+            return Mono.just(booking.getBookingId());
+        }
+        final LocalDate newStart = newBookingDates.get(0).getBookedDate();
+        final LocalDate newEnd = newBookingDates.get(newBookingDates.size() - 1).getBookedDate();
+        checkBookedDates(booking.getSiteId(), addedDates, newStart, newEnd);
+        final DateHolds.Claim claim = dateHolds.claim(booking.getSiteId(),
+                                                      addedDates.stream().map(BookingDate::getBookedDate).collect(Collectors.toList()));
+        if (claim == null) {
+            throw getConflict(booking.getSiteId(), newStart, newEnd);
+        }
+        return TransactionHooks.afterCompletion(lockAddedDates(booking.getSiteId(), addedDates)
+                                                    .filter(booked -> !booked)
+                                                    .switchIfEmpty(Mono.error(() -> getConflict(booking.getSiteId(), newStart, newEnd)))
+                                                    .then(bookingDateStorage.update(newBookingDates, removedDates, addedDates))
+                                                    .onErrorMap(DataIntegrityViolationException.class, e -> getConflict(booking.getSiteId(), newStart, newEnd))
+                                                    .then(TransactionHooks.afterCommit(() -> bookingWriter.applyCommitted(removedDates, addedDates, booking.getBookingId()))),
+                                                claim::release)
+            .thenReturn(booking.getBookingId());
+    }
+
+    //with advisory locks the added dates are locked in the transaction of the update, true when another booking has any of them
+    private Mono<Boolean> lockAddedDates(final Long siteId, final List<BookingDate> addedDates) {
+        if (!bookingWriter.locksNights()) {
+            return Mono.just(false);
+        }
+        return bookingWriter.lockNights(siteId, addedDates.stream().map(BookingDate::getBookedDate).collect(Collectors.toList()));
+    }
+
+    //the added dates are not the booking's own dates, so any of them booked in the index is a conflict
+    private void checkBookedDates(final Long siteId, final List<BookingDate> addedDates, final LocalDate start, final LocalDate end) {
+        for (BookingDate date : addedDates) {
+            final LocalDate day = date.getBookedDate();
+            if (availabilityIndex.covers(siteId, day, day) && !availabilityIndex.isAvailable(siteId, day, day)) {
+                throw getConflict(siteId, start, end);
+            }
+        }
     }
 
+    private List<BookingDate> getDatesNotIn(final List<BookingDate> dates, final List<BookingDate> others) {
+        return dates.stream()
+            .filter(d -> others.stream().noneMatch(o -> o.getBookedDate().equals(d.getBookedDate()) && o.getSiteId().equals(d.getSiteId())))
+            .collect(Collectors.toList());
+    }
 
     private List<BookingDate> getUpdatedBookingDates(final Booking booking,
                                                      final List<BookingDate> existingDates,
@@ -172,14 +581,18 @@ public class BookingService {
             existingDates.get(existingDates.size() - 1).getBookedDate().plusDays(0) :
             newEnd.plusDays(0);
         validateBookingDates(updateStart, updateEnd);
-        return getBookingDates(booking.getId(), updateStart, updateEnd);
+        return getBookingDates(booking.getId(), booking.getSiteId(), updateStart, updateEnd);
     }
 
     @Transactional(propagation = Propagation.REQUIRED)
     public Mono<DeletionResponse> delete(final UUID id) {
-        return bookingRepo.findBookingByBookingId(id)
-            .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "Booking is not found")))
-            .flatMap(booking -> bookingRepo.deleteBookingByBookingId(id))
-            .thenReturn(new DeletionResponse(id));
+        return metrics.timed("cancel", () -> lockBooking(id)
+            .flatMap(booking -> bookingDateStorage.findBookingDates(booking.getId()).collectList())
+            .flatMap(dates -> bookingRepo.deleteBookingByBookingId(id)
+                .then(TransactionHooks.afterCommit(() -> {
+                    bookingCache.invalidate(id);
+                    bookingWriter.applyCommitted(dates, List.of(), id);
+                })))
+            .thenReturn(new DeletionResponse(id)));
     }
 }
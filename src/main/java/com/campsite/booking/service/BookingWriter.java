@@ -0,0 +1,107 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.entity.BookingDate;
+import com.campsite.booking.repository.AdvisoryNightLocks;
+import com.campsite.booking.repository.BookingDateStorage;
+import com.campsite.booking.repository.BookingRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * The writes of new bookings. It is a separate bean so the booking service validates
+ * and checks the request for conflicts before anything is written.
+ */
+@Service
+public class BookingWriter {
+    private final BookingRepository bookingRepo;
+    private final BookingDateStorage bookingDateStorage;
+    private final AvailabilityIndex availabilityIndex;
+    //present when `campsite.write-lock` is advisory
+    private final Optional<AdvisoryNightLocks> nightLocks;
+    //present when `campsite.cluster-sync.enabled`
+    private final Optional<ClusterSync> clusterSync;
+
+    public BookingWriter(BookingRepository bookingRepo,
+                         BookingDateStorage bookingDateStorage,
+                         AvailabilityIndex availabilityIndex,
+                         Optional<AdvisoryNightLocks> nightLocks,
+                         Optional<ClusterSync> clusterSync) {
+        this.bookingRepo = bookingRepo;
+        this.bookingDateStorage = bookingDateStorage;
+        this.availabilityIndex = availabilityIndex;
+        this.nightLocks = nightLocks;
+        this.clusterSync = clusterSync;
+    }
+
+    //the committed changes of the dates go to the index of this instance and to the other instances,
+    //the bookingId of an updated or cancelled booking makes the others drop it from their cache
+    void applyCommitted(final List<BookingDate> freedDates, final List<BookingDate> bookedDates, final UUID bookingId) {
+        availabilityIndex.apply(freedDates, bookedDates);
+        clusterSync.ifPresent(sync -> sync.publish(freedDates, bookedDates, bookingId));
+    }
+
+    public boolean locksNights() {
+        return nightLocks.isPresent();
+    }
+
+    //one statement writes the booking and its dates, it needs no transaction of its own: it commits when it ends
+    public Mono<UUID> insert(final Booking booking) {
+        return bookingDateStorage.insertBooking(booking)
+            .flatMap(id -> {
+                List<BookingDate> bookingDates = BookingService.getBookingDates(id, booking.getSiteId(), booking.getStart(), booking.getEnd());
+                return TransactionHooks.afterCommit(() -> applyCommitted(List.of(), bookingDates, null));
+            })
+            .thenReturn(booking.getBookingId());
+    }
+
+    //the nights are locked in the transaction of the insert, and the insert is skipped(empty) when another booking has any of them.
+    //Each statement sees the commits before it, so a booking which waited for the lock sees the booking which held it
+    @Transactional(propagation = Propagation.REQUIRED)
+    public Mono<UUID> insertLocked(final Booking booking) {
+        return lockNights(booking.getSiteId(), getNights(booking.getStart(), booking.getEnd()))
+            .flatMap(booked -> booked ? Mono.empty() : insert(booking));
+    }
+
+    //locks the nights for the current transaction, true when any of them is booked once they are locked
+    public Mono<Boolean> lockNights(final Long siteId, final List<LocalDate> nights) {
+        if (nights.isEmpty()) {
+            return Mono.just(false);
+        }
+        final LocalDate first = nights.stream().min(LocalDate::compareTo).get();
+        final LocalDate last = nights.stream().max(LocalDate::compareTo).get();
+        return nightLocks.get().lock(siteId, nights)
+            .then(bookingDateStorage.findBookedDates(siteId, first, last)
+                      .any(bookedDate -> nights.contains(bookedDate.getBookedDate())));
+    }
+
+    private static List<LocalDate> getNights(final LocalDate start, final LocalDate end) {
+        return start.datesUntil(end.plusDays(1)).collect(Collectors.toList());
+    }
+
+    //the bookings of a bulk request in one transaction, a conflict of any of them rolls back all of them
+    @Transactional(propagation = Propagation.REQUIRED)
+    public Mono<List<UUID>> insertAll(final List<Booking> bookings) {
+        return bookingRepo.saveAll(bookings)
+            .collectList()
+            .flatMap(this::saveBookingDates);
+    }
+
+    private Mono<List<UUID>> saveBookingDates(final List<Booking> bookings) {
+        List<List<BookingDate>> bookingDates = bookings.stream()
+            .map(b -> BookingService.getBookingDates(b.getId(), b.getSiteId(), b.getStart(), b.getEnd()))
+            .collect(Collectors.toList());
+        List<BookingDate> allDates = bookingDates.stream().flatMap(List::stream).collect(Collectors.toList());
+        return bookingDateStorage.insertAll(bookingDates)
+            .then(TransactionHooks.afterCommit(() -> applyCommitted(List.of(), allDates, null)))
+            .thenReturn(bookings.stream().map(Booking::getBookingId).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,164 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.dto.BookingRequest;
+import com.campsite.booking.dto.BulkBookingResult;
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.exception.InvalidBookingException;
+import com.campsite.booking.filter.CorrelationId;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Books a stream of requests, like the group bookings of operators and partner channels.
+ * Every request is checked like a single booking, the checked ones are written by batches of `campsite.bulk.batch-size`
+ * bookings in one transaction. A batch which conflicts in the DB is written again booking by booking, so only the
+ * conflicting bookings fail. The result of every request is streamed back once its batch is written.
+ */
+@Service
+@Slf4j
+public class BulkBookingService {
+    private final BookingService bookingService;
+    private final BookingWriter bookingWriter;
+    private final BookingMetrics metrics;
+    private final Validator validator;
+    private final int batchSize;
+    private final Duration maxWait;
+
+    public BulkBookingService(BookingService bookingService,
+                              BookingWriter bookingWriter,
+                              BookingMetrics metrics,
+                              Validator validator,
+                              @Value("${campsite.bulk.batch-size:50}") int batchSize,
+                              @Value("${campsite.bulk.max-wait:100ms}") Duration maxWait) {
+        this.bookingService = bookingService;
+        this.bookingWriter = bookingWriter;
+        this.metrics = metrics;
+        this.validator = validator;
+        this.batchSize = batchSize;
+        this.maxWait = maxWait;
+    }
+
+    //a slow client does not hold back the checked bookings longer than maxWait
+    public Flux<BulkBookingResult> book(final Flux<BookingRequest> requests) {
+        return requests.index()
+            .concatMap(this::check)
+            .bufferTimeout(batchSize, maxWait)
+            //the batches are written long after the request is subscribed, their failures are logged with its correlation id
+            .concatMap(batch -> Flux.deferContextual(context -> write(batch, CorrelationId.get(context))))
+            //the checked bookings dropped by a client which went away free their nights
+            .doOnDiscard(Object.class, BulkBookingService::release);
+    }
+
+    private Mono<Item> check(final Tuple2<Long, BookingRequest> indexedRequest) {
+        final long index = indexedRequest.getT1();
+        final BookingRequest request = indexedRequest.getT2();
+        return Mono.fromRunnable(() -> validate(request))
+            .then(bookingService.checkBooking(request))
+            .map(booking -> new Item(index, booking, bookingService.claim(booking, request.getHoldToken()), null))
+            .onErrorResume(e -> Mono.just(new Item(index, null, null, e)));
+    }
+
+    //the bean validation of the single booking, which the controller cannot apply to the items of a stream
+    private void validate(final BookingRequest request) {
+        final Set<ConstraintViolation<BookingRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            throw new InvalidBookingException(violations.stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .collect(Collectors.joining(", ")));
+        }
+    }
+
+    private Flux<BulkBookingResult> write(final List<Item> batch, final String correlationId) {
+        final List<Item> checked = batch.stream().filter(item -> item.error == null).collect(Collectors.toList());
+        final Flux<BulkBookingResult> failed = Flux.fromIterable(batch)
+            .filter(item -> item.error != null)
+            .map(item -> getFailure(item.index, item.error, correlationId));
+        if (checked.isEmpty()) {
+            return failed;
+        }
+        final Mono<List<BulkBookingResult>> written = metrics.timed("book_batch", () -> bookingWriter.insertAll(getBookings(checked)))
+            .map(bookingIds -> getSuccesses(checked, bookingIds))
+            .onErrorResume(DataIntegrityViolationException.class, e -> Flux.fromIterable(checked)
+                .concatMap(item -> writeOne(item, correlationId))
+                .collectList())
+            .onErrorResume(e -> Mono.just(checked.stream()
+                                              .map(item -> getFailure(item.index, e, correlationId))
+                                              .collect(Collectors.toList())))
+            .doFinally(signal -> checked.forEach(Item::release));
+        return failed.concatWith(written.flatMapIterable(results -> results));
+    }
+
+    private Mono<BulkBookingResult> writeOne(final Item item, final String correlationId) {
+        return metrics.timed("book", () -> bookingWriter.insert(item.booking)
+                .onErrorMap(DataIntegrityViolationException.class, e -> bookingService.getConflict(item.booking)))
+            .map(bookingId -> new BulkBookingResult(item.index, HttpStatus.CREATED.value(), bookingId, null))
+            .onErrorResume(e -> Mono.just(getFailure(item.index, e, correlationId)));
+    }
+
+    //the items are discarded one by one from the buffer, and by batches from the queue of the writes
+    private static void release(final Object discarded) {
+        if (discarded instanceof Item) {
+            ((Item) discarded).release();
+        }
+        else if (discarded instanceof List) {
+            ((List<?>) discarded).forEach(BulkBookingService::release);
+        }
+    }
+
+    private List<Booking> getBookings(final List<Item> items) {
+        return items.stream().map(item -> item.booking).collect(Collectors.toList());
+    }
+
+    private List<BulkBookingResult> getSuccesses(final List<Item> items, final List<UUID> bookingIds) {
+        return IntStream.range(0, items.size())
+            .mapToObj(i -> new BulkBookingResult(items.get(i).index, HttpStatus.CREATED.value(), bookingIds.get(i), null))
+            .collect(Collectors.toList());
+    }
+
+    private BulkBookingResult getFailure(final long index, final Throwable error, final String correlationId) {
+        if (error instanceof ResponseStatusException) {
+            final ResponseStatusException statusException = (ResponseStatusException) error;
+            return new BulkBookingResult(index, statusException.getRawStatusCode(), null, statusException.getReason());
+        }
+        CorrelationId.run(correlationId, () -> log.error("Bulk booking of request {} failed", index, error));
+        return new BulkBookingResult(index, HttpStatus.INTERNAL_SERVER_ERROR.value(), null, "Booking failed");
+    }
+
+    private static final class Item {
+        private final long index;
+        private final Booking booking;
+        //the nights of the booking claimed until its batch is written
+        private final DateHolds.Claim claim;
+        private final Throwable error;
+
+        private Item(long index, Booking booking, DateHolds.Claim claim, Throwable error) {
+            this.index = index;
+            this.booking = booking;
+            this.claim = claim;
+            this.error = error;
+        }
+
+        private void release() {
+            if (claim != null) {
+                claim.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.config.ReadWriteRoutingConnectionFactory;
+import com.campsite.booking.entity.BookingDate;
+import com.campsite.booking.repository.BookingDateStorage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.spi.ConnectionFactory;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the availability index and the booking cache of the instances in sync, for `campsite.cluster-sync.enabled`.
+ * Every committed book, update and cancel is published by NOTIFY on `campsite.cluster-sync.channel`,
+ * every instance LISTENs on a connection of its own and applies the changes of the others to its index and cache.
+ * The notifications of the instances may arrive in another order than their commits, so a notification only tells
+ * which nights changed: they are read again from the primary, one notification after the other, before the index is patched.
+ * The notifications sent while an instance does not listen are lost, so the index is rebuilt and the cache cleared
+ * whenever the listener (re)connects. The holds stay local to their instance.
+ */
+@Component
+@ConditionalOnProperty(name = "campsite.cluster-sync.enabled", havingValue = "true")
+@Slf4j
+public class ClusterSync implements DisposableBean {
+    //postgres rejects the payloads of 8000 bytes and more, the larger changes make the others resync
+    private static final int MAX_PAYLOAD_BYTES = 7900;
+
+    private final AvailabilityIndex availabilityIndex;
+    private final BookingCache bookingCache;
+    private final BookingDateStorage bookingDateStorage;
+    private final DatabaseClient databaseClient;
+    //the pool does not hand out its connections for good, the listener gets one from the driver of the primary
+    private final ConnectionFactory listenerConnectionFactory;
+    private final ObjectMapper objectMapper;
+    private final String channel;
+    private final Duration maxReconnectDelay;
+    //the notifications of this instance come back to it, they are skipped
+    private final String origin = UUID.randomUUID().toString();
+    private volatile Disposable listener;
+
+    public ClusterSync(AvailabilityIndex availabilityIndex,
+                       BookingCache bookingCache,
+                       BookingDateStorage bookingDateStorage,
+                       DatabaseClient databaseClient,
+                       ConnectionFactory connectionFactory,
+                       ObjectMapper objectMapper,
+                       @Value("${campsite.cluster-sync.channel:booking_changes}") String channel,
+                       @Value("${campsite.cluster-sync.max-reconnect-delay:30s}") Duration maxReconnectDelay) {
+        this.availabilityIndex = availabilityIndex;
+        this.bookingCache = bookingCache;
+        this.bookingDateStorage = bookingDateStorage;
+        this.databaseClient = databaseClient;
+        final ConnectionPool primaryPool = ReadWriteRoutingConnectionFactory.getPools(connectionFactory).get("primary");
+        this.listenerConnectionFactory = primaryPool != null ? primaryPool.unwrap() : connectionFactory;
+        this.objectMapper = objectMapper;
+        this.channel = channel;
+        this.maxReconnectDelay = maxReconnectDelay;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        listener = listen()
+            .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                           .maxBackoff(maxReconnectDelay)
+                           .transientErrors(true)
+                           .doBeforeRetry(signal -> log.warn("Cluster sync listener failed, reconnecting: {}", signal.failure().toString())))
+            .subscribe();
+    }
+
+    @Override
+    public void destroy() {
+        if (listener != null) {
+            listener.dispose();
+        }
+    }
+
+    //called once the change is committed, the others are told without delaying the response
+    public void publish(final Collection<BookingDate> freedDates, final Collection<BookingDate> bookedDates, final UUID bookingId) {
+        final String payload = getPayload(freedDates, bookedDates, bookingId);
+        databaseClient.sql("select pg_notify(:channel, :payload)")
+            .bind("channel", channel)
+            .bind("payload", payload)
+            .fetch()
+            .rowsUpdated()
+            .subscribe(rows -> { },
+                       e -> log.warn("Failed to notify the other instances of the changes of booking {}", bookingId, e));
+    }
+
+    //a listener which ends, by an error or a closed connection, connects again, a failed read of the nights too.
+    //The channel is quoted like pg_notify takes it, so it is case sensitive.
+    //The driver drops the notifications nobody asked for, they are buffered while the ones before them are read
+    private Flux<Void> listen() {
+        return Flux.usingWhen(Mono.from(listenerConnectionFactory.create()).cast(PostgresqlConnection.class),
+                              connection -> connection.createStatement("LISTEN \"" + channel + "\"")
+                                  .execute()
+                                  .flatMap(PostgresqlResult::getRowsUpdated)
+                                  .then(resync())
+                                  .thenMany(connection.getNotifications())
+                                  .onBackpressureBuffer()
+                                  .concatMap(this::apply)
+                                  .concatWith(Mono.error(() -> new IllegalStateException("The listener connection is closed"))),
+                              connection -> connection.close());
+    }
+
+    //what the others committed while this instance did not listen
+    private Mono<Void> resync() {
+        return Mono.fromRunnable(bookingCache::invalidateAll)
+            .then(availabilityIndex.rebuild())
+            .doOnSuccess(v -> log.info("Listening to the changes of the other instances on {}, the availability index is rebuilt", channel));
+    }
+
+    //the notifications are applied one after the other, so the nights read for a notification are never older
+    //than the ones read for the notifications before it, and the last read of a night is the one the index keeps
+    Mono<Void> apply(final Notification notification) {
+        final Change change;
+        try {
+            change = objectMapper.readValue(notification.getParameter(), Change.class);
+        }
+        catch (JsonProcessingException | IllegalArgumentException e) {
+            log.warn("Ignored a malformed notification on {}: {}", channel, e.toString());
+            return Mono.empty();
+        }
+        if (origin.equals(change.getOrigin())) {
+            return Mono.empty();
+        }
+        if (change.isResync()) {
+            return resync();
+        }
+        if (change.getBookingId() != null) {
+            bookingCache.invalidate(change.getBookingId());
+        }
+        return Flux.fromIterable(getChangedNights(change).entrySet())
+            .concatMap(site -> reload(site.getKey(), site.getValue()))
+            .then();
+    }
+
+    //the changed nights of the site as they are on the primary now, whatever the notification says they became.
+    //A commit of this instance applied to the site after the read may be newer than the read, the nights are read again then
+    private Mono<Void> reload(final Long siteId, final Set<LocalDate> nights) {
+        final LocalDate first = nights.stream().min(LocalDate::compareTo).get();
+        final LocalDate last = nights.stream().max(LocalDate::compareTo).get();
+        return Mono.defer(() -> {
+            final long version = availabilityIndex.getVersion(siteId);
+            return bookingDateStorage.findBookedDates(siteId, first, last)
+                .map(BookingDate::getBookedDate)
+                .collect(Collectors.toSet())
+                .flatMap(booked -> {
+                    final Map<Boolean, List<BookingDate>> byBooked = nights.stream()
+                        .map(night -> new BookingDate(null, siteId, night))
+                        .collect(Collectors.partitioningBy(night -> booked.contains(night.getBookedDate())));
+                    return availabilityIndex.apply(siteId, version, byBooked.get(false), byBooked.get(true)) ?
+                        Mono.empty() :
+                        reload(siteId, nights);
+                });
+        });
+    }
+
+    String getPayload(final Collection<BookingDate> freedDates, final Collection<BookingDate> bookedDates, final UUID bookingId) {
+        try {
+            final String payload = objectMapper.writeValueAsString(new Change(origin, bookingId, bySite(bookedDates), bySite(freedDates), false));
+            if (payload.getBytes(StandardCharsets.UTF_8).length <= MAX_PAYLOAD_BYTES) {
+                return payload;
+            }
+            return objectMapper.writeValueAsString(new Change(origin, null, Map.of(), Map.of(), true));
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<Long, List<LocalDate>> bySite(final Collection<BookingDate> dates) {
+        return dates.stream()
+            .collect(Collectors.groupingBy(BookingDate::getSiteId, Collectors.mapping(BookingDate::getBookedDate, Collectors.toList())));
+    }
+
+    //the booked and freed nights of the change by site
+    private static Map<Long, Set<LocalDate>> getChangedNights(final Change change) {
+        return Stream.of(change.getBooked(), change.getFreed())
+            .filter(Objects::nonNull)
+            .flatMap(datesBySite -> datesBySite.entrySet().stream())
+            .collect(Collectors.groupingBy(Map.Entry::getKey,
+                                           TreeMap::new,
+                                           Collectors.flatMapping(site -> site.getValue().stream(), Collectors.toSet())));
+    }
+
+    //the payload of a notification, the dates by site id
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    static class Change {
+        String origin;
+        UUID bookingId;
+        Map<Long, List<LocalDate>> booked;
+        Map<Long, List<LocalDate>> freed;
+        //the change was too large to be sent, the instances rebuild their index instead
+        boolean resync;
+    }
+}
@@ -0,0 +1,180 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.exception.BookingException;
+import com.campsite.booking.exception.InvalidBookingException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * The nights of the sites claimed in memory, by a hold of a checkout or by a booking while it is written.
+ * A night has one claim at most, so a booking of held nights fails right away without touching the DB,
+ * and the booking of a hold cannot lose its nights to another one.
+ * Holds expire after `campsite.holds.ttl`, the expiry is scheduled so their nights are freed on time.
+ */
+@Component
+public class DateHolds {
+    //the claims by site and epoch day, guarded by this
+    private final Map<Long, Map<Long, Claim>> claims = new HashMap<>();
+    private final Cache<UUID, Claim> holds;
+    private final Duration ttl;
+    private volatile long version;
+    //the version of the last change of each site
+    private final Map<Long, Long> siteVersions = new ConcurrentHashMap<>();
+
+    public DateHolds(@Value("${campsite.holds.ttl:60s}") Duration ttl,
+                     @Value("${campsite.holds.max-size:10000}") long maxSize) {
+        this.ttl = ttl;
+        this.holds = Caffeine.newBuilder()
+            .expireAfterWrite(ttl)
+            .maximumSize(maxSize)
+            .scheduler(Scheduler.systemScheduler())
+            //the holds taken by their booking or released are removed explicitly, the others expired or were evicted
+            .removalListener((UUID token, Claim claim, RemovalCause cause) -> {
+                if (cause != RemovalCause.EXPLICIT && claim != null) {
+                    claim.release();
+                }
+            })
+            .build();
+    }
+
+    //changes whenever a night is claimed or freed
+    public long getVersion() {
+        return version;
+    }
+
+    //changes whenever a night of the site is claimed or freed
+    public long getVersion(final Long siteId) {
+        return siteVersions.getOrDefault(siteId, 0L);
+    }
+
+    //null when any of the nights is claimed already
+    public synchronized Claim claim(final Long siteId, final List<LocalDate> nights) {
+        final Map<Long, Claim> siteClaims = claims.computeIfAbsent(siteId, id -> new HashMap<>());
+        final long[] days = nights.stream().mapToLong(LocalDate::toEpochDay).toArray();
+        for (long day : days) {
+            if (siteClaims.containsKey(day)) {
+                return null;
+            }
+        }
+        final Claim claim = new Claim(siteId, days);
+        for (long day : days) {
+            siteClaims.put(day, claim);
+        }
+        siteVersions.put(siteId, ++version);
+        return claim;
+    }
+
+    //a claim which lasts for the ttl, null when any of the nights is claimed already
+    public Claim hold(final Long siteId, final List<LocalDate> nights) {
+        final Claim claim = claim(siteId, nights);
+        if (claim != null) {
+            claim.token = UUID.randomUUID();
+            claim.expiresAt = Instant.now().plus(ttl);
+            holds.put(claim.token, claim);
+        }
+        return claim;
+    }
+
+    //the claim of the hold for its booking, it does not expire any more and is released once the booking is written
+    public Claim take(final UUID token, final Long siteId, final List<LocalDate> nights) {
+        final Claim claim = holds.getIfPresent(token);
+        if (claim == null) {
+            throw new BookingException(HttpStatus.GONE, String.format("Hold %s expired or does not exist", token));
+        }
+        if (!claim.isOf(siteId, nights)) {
+            throw new InvalidBookingException(String.format("The booking is not of the site and dates of hold %s", token));
+        }
+        if (!holds.asMap().remove(token, claim)) {
+            throw new BookingException(HttpStatus.GONE, String.format("Hold %s expired or does not exist", token));
+        }
+        return claim;
+    }
+
+    public boolean release(final UUID token) {
+        final Claim claim = holds.asMap().remove(token);
+        if (claim == null) {
+            return false;
+        }
+        claim.release();
+        return true;
+    }
+
+    public synchronized boolean isClaimed(final Long siteId, final LocalDate start, final LocalDate end) {
+        final Map<Long, Claim> siteClaims = claims.get(siteId);
+        if (siteClaims == null || siteClaims.isEmpty()) {
+            return false;
+        }
+        for (long day = start.toEpochDay(); day <= end.toEpochDay(); day++) {
+            if (siteClaims.containsKey(day)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized List<LocalDate> withoutClaimed(final Long siteId, final List<LocalDate> dates) {
+        final Map<Long, Claim> siteClaims = claims.get(siteId);
+        if (siteClaims == null || siteClaims.isEmpty()) {
+            return dates;
+        }
+        return dates.stream().filter(d -> !siteClaims.containsKey(d.toEpochDay())).collect(Collectors.toList());
+    }
+
+    private synchronized void release(final Claim claim) {
+        final Map<Long, Claim> siteClaims = claims.get(claim.siteId);
+        if (siteClaims == null) {
+            return;
+        }
+        for (long day : claim.days) {
+            siteClaims.remove(day, claim);
+        }
+        siteVersions.put(claim.siteId, ++version);
+    }
+
+    public final class Claim {
+        private final Long siteId;
+        private final long[] days;
+        private volatile UUID token;
+        private volatile Instant expiresAt;
+
+        private Claim(Long siteId, long[] days) {
+            this.siteId = siteId;
+            this.days = days;
+        }
+
+        //null for the claims of the bookings being written
+        public UUID getToken() {
+            return token;
+        }
+
+        public Instant getExpiresAt() {
+            return expiresAt;
+        }
+
+        //frees the nights, a released claim is released again without effect
+        public void release() {
+            DateHolds.this.release(this);
+        }
+
+        private boolean isOf(final Long siteId, final List<LocalDate> nights) {
+            return this.siteId.equals(siteId)
+                && days.length == nights.size()
+                && days[0] == nights.get(0).toEpochDay();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.campsite.booking.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+
+/**
+ * Orders the writes of the bookings which share a night of a site, the writes of other nights run in parallel.
+ * The nights are hashed to `campsite.sequencer.stripes` FIFO locks, a write holds the locks of its nights until it ends.
+ * They are taken in stripe order, so two writes never wait for each other. Nothing blocks a thread:
+ * a waiting write is resumed, on the parallel scheduler, by the release of the write before it.
+ */
+@Component
+public class DateSequencer {
+    private final Stripe[] stripes;
+    private final int mask;
+
+    public DateSequencer(@Value("${campsite.sequencer.stripes:1024}") int stripes) {
+        //a power of two, the stripe of a night is the low bits of its hash
+        final int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+    }
+
+    //the write is subscribed once the writes before it on the same nights ended, whatever their outcome
+    public <T> Mono<T> sequence(final Long siteId, final LocalDate start, final LocalDate end, final Supplier<Mono<T>> write) {
+        return Mono.usingWhen(acquire(getStripes(siteId, start, end)),
+                              permit -> Mono.defer(write),
+                              permit -> Mono.fromRunnable(permit::release),
+                              (permit, e) -> Mono.fromRunnable(permit::release),
+                              permit -> Mono.fromRunnable(permit::release));
+    }
+
+    private int[] getStripes(final Long siteId, final LocalDate start, final LocalDate end) {
+        return LongStream.rangeClosed(start.toEpochDay(), end.toEpochDay())
+            .mapToInt(day -> (int) ((siteId * 0x9E3779B97F4A7C15L + day) * 0xBF58476D1CE4E5B9L >>> 32) & mask)
+            .distinct()
+            .sorted()
+            .toArray();
+    }
+
+    private Mono<Permit> acquire(final int[] stripeIds) {
+        return Mono.<Permit>create(sink -> {
+                final Permit permit = new Permit(stripeIds, sink);
+                sink.onCancel(permit::cancel);
+                permit.lock(0);
+            })
+            //a permit granted while the write was cancelled is not used by anyone
+            .doOnDiscard(Permit.class, Permit::release);
+    }
+
+    private final class Permit {
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int CANCELLED = 2;
+
+        private final int[] stripeIds;
+        private final MonoSink<Permit> sink;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int[] stripeIds, MonoSink<Permit> sink) {
+            this.stripeIds = stripeIds;
+            this.sink = sink;
+        }
+
+        private void lock(final int next) {
+            if (next < stripeIds.length) {
+                stripes[stripeIds[next]].lock(() -> lock(next + 1));
+            }
+            else if (state.compareAndSet(WAITING, GRANTED)) {
+                sink.success(this);
+            }
+            else {
+                release();
+            }
+        }
+
+        //the locks it waits for are released once they are taken
+        private void cancel() {
+            state.compareAndSet(WAITING, CANCELLED);
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                for (int i = stripeIds.length - 1; i >= 0; i--) {
+                    stripes[stripeIds[i]].unlock();
+                }
+            }
+        }
+    }
+
+    private static final class Stripe {
+        //guarded by this
+        private final Queue<Runnable> waiters = new ArrayDeque<>();
+        private boolean locked;
+
+        private void lock(final Runnable onLocked) {
+            synchronized (this) {
+                if (locked) {
+                    waiters.add(onLocked);
+                    return;
+                }
+                locked = true;
+            }
+            onLocked.run();
+        }
+
+        //the lock is handed to the next waiter as it is, the waiter runs on another thread so the releases do not nest
+        private void unlock() {
+            final Runnable next;
+            synchronized (this) {
+                next = waiters.poll();
+                if (next == null) {
+                    locked = false;
+                    return;
+                }
+            }
+            Schedulers.parallel().schedule(next);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.dto.BookingRequest;
+import com.campsite.booking.dto.BookingResponse;
+import com.campsite.booking.exception.BookingException;
+import com.campsite.booking.exception.InvalidBookingException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * The bookings by their Idempotency-Key, kept in memory for the ttl.
+ * The first request of a key runs the booking, its retries and concurrent duplicates share that one result.
+ * A failed booking is not kept, so it can be retried with the same key.
+ */
+@Component
+public class IdempotencyCache {
+    static final int MAX_KEY_LENGTH = 255;
+
+    private final Cache<String, Entry> bookings;
+
+    public IdempotencyCache(@Value("${campsite.idempotency.ttl:24h}") Duration ttl,
+                            @Value("${campsite.idempotency.max-size:100000}") long maxSize) {
+        this.bookings = Caffeine.newBuilder()
+            .expireAfterWrite(ttl)
+            .maximumSize(maxSize)
+            .build();
+    }
+
+    public Mono<BookingResponse> book(final String key,
+                                      final BookingRequest request,
+                                      final Function<BookingRequest, Mono<BookingResponse>> booking) {
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            return Mono.error(new InvalidBookingException(String.format("Idempotency-Key must have 1 to %d characters", MAX_KEY_LENGTH)));
+        }
+        final Entry entry = bookings.get(key, k -> new Entry(request, booking.apply(request)));
+        if (!entry.request.equals(request)) {
+            return Mono.error(new BookingException(HttpStatus.UNPROCESSABLE_ENTITY,
+                                                          String.format("Idempotency-Key %s was used by another booking request", key)));
+        }
+        return entry.response
+            .doOnError(e -> bookings.asMap().remove(key, entry));
+    }
+
+    private static final class Entry {
+        private final BookingRequest request;
+        //cached: the booking runs once, even when the first caller goes away
+        private final Mono<BookingResponse> response;
+
+        private Entry(BookingRequest request, Mono<BookingResponse> response) {
+            this.request = request;
+            this.response = response.cache();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.campsite.booking.service;
+
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Mono;
+
+final class TransactionHooks {
+    private TransactionHooks() {
+    }
+
+    //runs the action once the current transaction commits, or right away when there is no transaction
+    static Mono<Void> afterCommit(final Runnable action) {
+        return TransactionSynchronizationManager.forCurrentTransaction()
+            .flatMap(synchronizationManager -> {
+                if (!synchronizationManager.isSynchronizationActive()) {
+                    return Mono.fromRunnable(action);
+                }
+                synchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public Mono<Void> afterCommit() {
+                        return Mono.fromRunnable(action);
+                    }
+                });
+                return Mono.empty();
+            })
+            .onErrorResume(NoTransactionException.class, e -> Mono.fromRunnable(action))
+            .then();
+    }
+
+    //runs the action once the current transaction completes, committed or rolled back,
+    //or once the write ends when there is no transaction
+    static <T> Mono<T> afterCompletion(final Mono<T> write, final Runnable action) {
+        return TransactionSynchronizationManager.forCurrentTransaction()
+            .flatMap(synchronizationManager -> {
+                if (!synchronizationManager.isSynchronizationActive()) {
+                    return write.doFinally(signal -> action.run());
+                }
+                synchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public Mono<Void> afterCompletion(int status) {
+                        return Mono.fromRunnable(action);
+                    }
+                });
+                return write;
+            })
+            .onErrorResume(NoTransactionException.class, e -> write.doFinally(signal -> action.run()));
+    }
+}
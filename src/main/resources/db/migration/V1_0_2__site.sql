@@ -0,0 +1,19 @@
+create table site(
+    id serial primary key,
+    name text not null,
+    constraint site_name unique (name)
+);
+
+insert into site(name) values ('Site 1');
+
+alter table booking add column site_id integer not null default 1;
+alter table booking add constraint fk_booking_site foreign key(site_id) references site(id);
+alter table booking alter column site_id drop default;
+
+alter table booking_date add column site_id integer not null default 1;
+alter table booking_date add constraint fk_booking_date_site foreign key(site_id) references site(id);
+alter table booking_date alter column site_id drop default;
+
+-- a date can be booked once per site; booked_date leads so range queries over all the sites use the index
+alter table booking_date drop constraint booking_date_booked_date;
+alter table booking_date add constraint booking_date_booked_date_site unique (booked_date, site_id);
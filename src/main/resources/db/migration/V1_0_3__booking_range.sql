@@ -0,0 +1,17 @@
+-- storage of campsite.storage.mode=range: one row per booking instead of one booking_date row per night
+create extension if not exists btree_gist;
+
+create table booking_range(
+    id serial primary key,
+    booking_id integer not null,
+    site_id integer not null,
+    stay daterange not null,
+    constraint fk_booking_range_booking foreign key(booking_id)
+        references booking(id)
+        on delete cascade,
+    constraint fk_booking_range_site foreign key(site_id) references site(id),
+    -- the stays of a site never overlap, the gist index also serves the availability queries
+    constraint booking_range_no_overlap exclude using gist (site_id with =, stay with &&)
+);
+
+create index booking_range_booking_id on booking_range (booking_id);
@@ -0,0 +1,11 @@
+-- the advisory locks of campsite.write-lock=advisory: a loop takes them one by one in the order of the array,
+-- the order of the rows of a select is not guaranteed to be the order its locks are taken in
+create or replace function lock_nights(keys bigint[]) returns void as $$
+declare
+    k bigint;
+begin
+    foreach k in array keys loop
+        perform pg_advisory_xact_lock(k);
+    end loop;
+end;
+$$ language plpgsql;
@@ -0,0 +1,178 @@
+package com.campsite.booking;
+
+import com.campsite.booking.dto.BookingRequest;
+import com.campsite.booking.dto.BookingResponse;
+import com.campsite.booking.dto.UpdateRequest;
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.entity.BookingDate;
+import com.campsite.booking.repository.BookingDateStorage;
+import com.campsite.booking.service.BookingWriter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//campsite.write-lock=advisory: the writers of a night wait for each other on the advisory locks of its nights
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+@Testcontainers
+@ContextConfiguration(initializers = {AdvisoryLockIntegrationTests.Initializer.class})
+class AdvisoryLockIntegrationTests {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private BookingWriter bookingWriter;
+
+    @Autowired
+    private BookingDateStorage bookingDateStorage;
+
+    @Container
+    public static PostgreSQLContainer postgres = new PostgreSQLContainer("postgres:12.11")
+        .withDatabaseName("postgres")
+        .withUsername("camp")
+        .withPassword("camp123");
+
+    static class Initializer
+        implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+        public void initialize(ConfigurableApplicationContext configurableApplicationContext) {
+            TestPropertyValues.of(
+                "spring.datasource.url=" + postgres.getJdbcUrl(),
+                "spring.datasource.username=" + postgres.getUsername(),
+                "spring.datasource.password=" + postgres.getPassword(),
+                "spring.flyway.url=" + postgres.getJdbcUrl(),
+                "spring.flyway.user=" + postgres.getUsername(),
+                "spring.flyway.password=" + postgres.getPassword(),
+                "spring.r2dbc.url=r2dbc:postgresql://localhost:" + postgres.getFirstMappedPort() + "/postgres",
+                "spring.r2dbc.username=" + postgres.getUsername(),
+                "spring.r2dbc.password=" + postgres.getPassword(),
+                "campsite.write-lock=advisory"
+            ).applyTo(configurableApplicationContext.getEnvironment());
+        }
+    }
+
+    //the writer is called without the sequencer of the service or the date rules, like the writers of several instances:
+    //6 stays around the same night, each overlapping the others by other nights. A deadlock would fail some of them
+    @Test
+    void overlappingLockedInsertsTest() {
+        IntStream.range(0, 3).forEach(round -> {
+            LocalDate night = LocalDate.now().plusDays(40 + round * 12);
+            List<Optional<UUID>> inserted = Flux.range(0, 6)
+                .parallel(6)
+                .runOn(Schedulers.parallel())
+                .flatMap(i -> bookingWriter.insertLocked(new Booking("name", "e@e", 1L, UUID.randomUUID(), night.minusDays(i), night.plusDays(5 - i)))
+                    .map(Optional::of)
+                    .defaultIfEmpty(Optional.empty()))
+                .sequential()
+                .collectList()
+                .block();
+
+            assertEquals(6, inserted.size());
+            assertEquals(1, inserted.stream().filter(Optional::isPresent).count());
+            assertEquals(6, getBookedNights(1L, night.minusDays(5), night.plusDays(5)).size());
+        });
+    }
+
+    //an update and bookings of the same nights at the same time: each of them is written or rejected with a 409, none fails,
+    //and the booked nights are the nights of the written ones
+    @Test
+    void concurrentBookingAndUpdateTest() {
+        LocalDate day = LocalDate.now().plusDays(20);
+        UUID bookingId = book(day, day.plusDays(1)).block().getBookingId();
+
+        List<HttpStatus> statuses = Flux.mergeSequential(
+                update(bookingId, day.plusDays(1), day.plusDays(3)),
+                bookStatus(day.plusDays(2), day.plusDays(4)),
+                bookStatus(day.plusDays(3), day.plusDays(5)),
+                bookStatus(day.minusDays(1), day.plusDays(1)))
+            .collectList()
+            .block();
+        List<List<LocalDate>> nights = List.of(
+            nights(day.plusDays(1), day.plusDays(3)),
+            nights(day.plusDays(2), day.plusDays(4)),
+            nights(day.plusDays(3), day.plusDays(5)),
+            nights(day.minusDays(1), day.plusDays(1)));
+
+        assertTrue(statuses.stream().allMatch(s -> s == HttpStatus.OK || s == HttpStatus.CREATED || s == HttpStatus.CONFLICT), statuses.toString());
+        Set<LocalDate> expected = IntStream.range(0, 4)
+            .filter(i -> statuses.get(i) != HttpStatus.CONFLICT)
+            .mapToObj(nights::get)
+            .flatMap(List::stream)
+            .collect(Collectors.toSet());
+        if (statuses.get(0) == HttpStatus.CONFLICT) {
+            expected.addAll(nights(day, day.plusDays(1)));
+        }
+        assertEquals(expected, Set.copyOf(getBookedNights(1L, day.minusDays(2), day.plusDays(6))), statuses.toString());
+    }
+
+    private static List<LocalDate> nights(LocalDate start, LocalDate end) {
+        return start.datesUntil(end.plusDays(1)).collect(Collectors.toList());
+    }
+
+    private Mono<BookingResponse> book(LocalDate start, LocalDate end) {
+        return client()
+            .post()
+            .uri("/booking/api/v1/book")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(new BookingRequest("name", "e@e", start, end)))
+            .retrieve()
+            .bodyToMono(BookingResponse.class);
+    }
+
+    private Mono<HttpStatus> bookStatus(LocalDate start, LocalDate end) {
+        return client()
+            .post()
+            .uri("/booking/api/v1/book")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(new BookingRequest("name", "e@e", start, end)))
+            .exchangeToMono(response -> response.releaseBody().thenReturn(response.statusCode()));
+    }
+
+    private Mono<HttpStatus> update(UUID bookingId, LocalDate start, LocalDate end) {
+        return client()
+            .patch()
+            .uri("/booking/api/v1/update/{id}", bookingId)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(new UpdateRequest(null, null, start, end)))
+            .exchangeToMono(response -> response.releaseBody().thenReturn(response.statusCode()));
+    }
+
+    private WebClient client() {
+        return WebClient.builder().baseUrl("http://localhost:" + port + "/").build();
+    }
+
+    private List<LocalDate> getBookedNights(Long siteId, LocalDate start, LocalDate end) {
+        return bookingDateStorage.findBookedDates(siteId, start, end)
+            .map(BookingDate::getBookedDate)
+            .sort()
+            .collect(Collectors.toList())
+            .block();
+    }
+}
@@ -110,7 +110,7 @@ class IntegrationTests {
             .contentType(MediaType.APPLICATION_JSON)
             .body(BodyInserters.fromValue(booking2))
             .exchange()
-            .expectStatus().isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR);
+            .expectStatus().isEqualTo(HttpStatus.CONFLICT);
 
         //query availability, 3 days are still available
         AvailabilityQueryResponse queryResponse3 = getAvailabilityQueryResponse(testClient, currentDate);
@@ -203,7 +203,7 @@ class IntegrationTests {
             .contentType(MediaType.APPLICATION_JSON)
             .body(BodyInserters.fromValue(booking))
             .retrieve()
-            .onStatus(HttpStatus::is5xxServerError, error -> {
+            .onStatus(HttpStatus::isError, error -> {
                 System.out.println("booking get error in thread: " + Thread.currentThread());
                 return Mono.error(new Exception("booking error"));
             })
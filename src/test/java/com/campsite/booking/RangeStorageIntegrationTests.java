@@ -0,0 +1,145 @@
+package com.campsite.booking;
+
+import com.campsite.booking.dto.BookingRequest;
+import com.campsite.booking.dto.BookingResponse;
+import com.campsite.booking.dto.UpdateRequest;
+import com.campsite.booking.entity.Booking;
+import com.campsite.booking.entity.BookingDate;
+import com.campsite.booking.repository.BookingDateStorage;
+import com.campsite.booking.repository.RangeBookingDateStorage;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//campsite.storage.mode=range: one booking_range row per booking, the exclusion constraint rejects the overlapping stays of a site
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+@Testcontainers
+@ContextConfiguration(initializers = {RangeStorageIntegrationTests.Initializer.class})
+class RangeStorageIntegrationTests {
+
+    @Autowired
+    private WebTestClient testClient;
+
+    @Autowired
+    private BookingDateStorage bookingDateStorage;
+
+    @Container
+    public static PostgreSQLContainer postgres = new PostgreSQLContainer("postgres:12.11")
+        .withDatabaseName("postgres")
+        .withUsername("camp")
+        .withPassword("camp123");
+
+    static class Initializer
+        implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+        public void initialize(ConfigurableApplicationContext configurableApplicationContext) {
+            TestPropertyValues.of(
+                "spring.datasource.url=" + postgres.getJdbcUrl(),
+                "spring.datasource.username=" + postgres.getUsername(),
+                "spring.datasource.password=" + postgres.getPassword(),
+                "spring.flyway.url=" + postgres.getJdbcUrl(),
+                "spring.flyway.user=" + postgres.getUsername(),
+                "spring.flyway.password=" + postgres.getPassword(),
+                "spring.r2dbc.url=r2dbc:postgresql://localhost:" + postgres.getFirstMappedPort() + "/postgres",
+                "spring.r2dbc.username=" + postgres.getUsername(),
+                "spring.r2dbc.password=" + postgres.getPassword(),
+                "campsite.storage.mode=range"
+            ).applyTo(configurableApplicationContext.getEnvironment());
+        }
+    }
+
+    @Test
+    void overlappingStayTest() {
+        LocalDate currentDate = LocalDate.now();
+        assertTrue(bookingDateStorage instanceof RangeBookingDateStorage);
+
+        //a booking written around the service: the availability index does not know its nights, only the constraint does
+        bookingDateStorage.insertBooking(new Booking("name", "e@e", 1L, UUID.randomUUID(), currentDate.plusDays(10), currentDate.plusDays(12))).block();
+        assertEquals(List.of(currentDate.plusDays(10), currentDate.plusDays(11), currentDate.plusDays(12)),
+                     getBookedNights(currentDate.plusDays(9), currentDate.plusDays(13)));
+
+        assertThrows(DataIntegrityViolationException.class,
+                     () -> bookingDateStorage.insertBooking(new Booking("name", "e@e", 1L, UUID.randomUUID(), currentDate.plusDays(12), currentDate.plusDays(13))).block());
+
+        //the violation of the constraint is a conflict, and nothing of the booking is written
+        testClient
+            .post()
+            .uri("/booking/api/v1/book")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(new BookingRequest("name", "e@e", currentDate.plusDays(9), currentDate.plusDays(10))))
+            .exchange()
+            .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+        assertEquals(List.of(currentDate.plusDays(10), currentDate.plusDays(11), currentDate.plusDays(12)),
+                     getBookedNights(currentDate.plusDays(9), currentDate.plusDays(13)));
+
+        //the stays next to it do not overlap it
+        book(currentDate.plusDays(8), currentDate.plusDays(9));
+        book(currentDate.plusDays(13), currentDate.plusDays(13));
+    }
+
+    @Test
+    void updateTest() {
+        LocalDate currentDate = LocalDate.now();
+        UUID bookingId = book(currentDate.plusDays(2), currentDate.plusDays(4));
+
+        //the first night is dropped and a night is added after the last one, the range of the row is replaced
+        testClient
+            .patch()
+            .uri("/booking/api/v1/update/{id}", bookingId)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(new UpdateRequest(null, null, currentDate.plusDays(3), currentDate.plusDays(5))))
+            .exchange()
+            .expectStatus().isOk();
+        assertEquals(List.of(currentDate.plusDays(3), currentDate.plusDays(4), currentDate.plusDays(5)),
+                     getBookedNights(currentDate.plusDays(1), currentDate.plusDays(6)));
+
+        //the dropped night is free again
+        book(currentDate.plusDays(2), currentDate.plusDays(2));
+        assertEquals(List.of(currentDate.plusDays(2), currentDate.plusDays(3), currentDate.plusDays(4), currentDate.plusDays(5)),
+                     getBookedNights(currentDate.plusDays(1), currentDate.plusDays(6)));
+    }
+
+    private UUID book(LocalDate start, LocalDate end) {
+        return testClient
+            .post()
+            .uri("/booking/api/v1/book")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(new BookingRequest("name", "e@e", start, end)))
+            .exchange()
+            .expectStatus().isCreated()
+            .expectBody(BookingResponse.class)
+            .returnResult()
+            .getResponseBody()
+            .getBookingId();
+    }
+
+    private List<LocalDate> getBookedNights(LocalDate start, LocalDate end) {
+        return bookingDateStorage.findBookedDates(1L, start, end)
+            .map(BookingDate::getBookedDate)
+            .sort()
+            .collect(Collectors.toList())
+            .block();
+    }
+}
@@ -0,0 +1,124 @@
+package com.campsite.booking;
+
+import com.campsite.booking.dto.BookingRequest;
+import com.campsite.booking.dto.BookingResponse;
+import com.campsite.booking.filter.ReadYourWritesFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseCookie;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+//two Postgres instances without replication: the replica never sees the writes, like a replica lagging behind
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+@Testcontainers
+@ContextConfiguration(initializers = {ReadReplicaIntegrationTests.Initializer.class})
+class ReadReplicaIntegrationTests {
+
+    @Autowired
+    private WebTestClient testClient;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Container
+    public static PostgreSQLContainer primary = new PostgreSQLContainer("postgres:12.11")
+        .withDatabaseName("postgres")
+        .withUsername("camp")
+        .withPassword("camp123");
+
+    @Container
+    public static PostgreSQLContainer replica = new PostgreSQLContainer("postgres:12.11")
+        .withDatabaseName("postgres")
+        .withUsername("camp")
+        .withPassword("camp123");
+
+    static class Initializer
+        implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+        public void initialize(ConfigurableApplicationContext configurableApplicationContext) {
+            //the schema of the replica, the application migrates the primary only
+            Flyway.configure()
+                .dataSource(replica.getJdbcUrl(), replica.getUsername(), replica.getPassword())
+                .schemas("camp")
+                .locations("classpath:db/migration")
+                .load()
+                .migrate();
+            TestPropertyValues.of(
+                "spring.datasource.url=" + primary.getJdbcUrl(),
+                "spring.datasource.username=" + primary.getUsername(),
+                "spring.datasource.password=" + primary.getPassword(),
+                "spring.flyway.url=" + primary.getJdbcUrl(),
+                "spring.flyway.user=" + primary.getUsername(),
+                "spring.flyway.password=" + primary.getPassword(),
+                "spring.r2dbc.url=r2dbc:postgresql://localhost:" + primary.getFirstMappedPort() + "/postgres",
+                "spring.r2dbc.username=" + primary.getUsername(),
+                "spring.r2dbc.password=" + primary.getPassword(),
+                "campsite.read-replica.enabled=true",
+                "campsite.read-replica.url=r2dbc:postgresql://localhost:" + replica.getFirstMappedPort() + "/postgres"
+            ).applyTo(configurableApplicationContext.getEnvironment());
+        }
+    }
+
+    @Test
+    void readYourWritesTest() {
+        LocalDate currentDate = LocalDate.now();
+
+        //the booking is written to the primary, the response pins the session to it
+        BookingRequest booking = new BookingRequest("name", "e@e", currentDate.plusDays(2), currentDate.plusDays(3));
+        EntityExchangeResult<BookingResponse> result = testClient
+            .post()
+            .uri("/booking/api/v1/book")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(booking))
+            .exchange()
+            .expectStatus().isCreated()
+            .expectCookie().exists(ReadYourWritesFilter.COOKIE)
+            .expectBody(BookingResponse.class)
+            .returnResult();
+        UUID bookingId = result.getResponseBody().getBookingId();
+        ResponseCookie cookie = result.getResponseCookies().getFirst(ReadYourWritesFilter.COOKIE);
+        assertNotNull(cookie);
+
+        //another session reads from the replica, which does not have the booking
+        testClient
+            .get()
+            .uri("/booking/api/v1/booking/{id}", bookingId)
+            .exchange()
+            .expectStatus().isNotFound();
+
+        //the session which booked reads its booking from the primary
+        testClient
+            .get()
+            .uri("/booking/api/v1/booking/{id}", bookingId)
+            .cookie(cookie.getName(), cookie.getValue())
+            .exchange()
+            .expectStatus().isOk();
+    }
+
+    @Test
+    void poolMetricsTest() {
+        assertEquals(2, meterRegistry.find("r2dbc.pool.max.allocated").gauges().size());
+        assertNotNull(meterRegistry.find("r2dbc.pool.acquired").tag("pool", "primary").gauge());
+        assertNotNull(meterRegistry.find("r2dbc.pool.acquired").tag("pool", "replica").gauge());
+    }
+}
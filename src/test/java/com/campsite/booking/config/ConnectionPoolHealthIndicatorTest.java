@@ -0,0 +1,117 @@
+package com.campsite.booking.config;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.PoolMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConnectionPoolHealthIndicatorTest {
+    private static final int MAX_PENDING_ACQUIRE = 5;
+
+    private ConnectionPool primary;
+    private ConnectionPool replica;
+    private PoolMetrics primaryMetrics;
+    private PoolMetrics replicaMetrics;
+
+    @BeforeEach
+    public void setUp() {
+        primary = mock(ConnectionPool.class);
+        replica = mock(ConnectionPool.class);
+        primaryMetrics = mockMetrics(primary);
+        replicaMetrics = mockMetrics(replica);
+    }
+
+    //a pool of 10 connections with 2 in use
+    private static PoolMetrics mockMetrics(final ConnectionPool pool) {
+        final PoolMetrics metrics = mock(PoolMetrics.class);
+        when(metrics.acquiredSize()).thenReturn(2);
+        when(metrics.idleSize()).thenReturn(8);
+        when(metrics.getMaxAllocatedSize()).thenReturn(10);
+        when(pool.getMetrics()).thenReturn(Optional.of(metrics));
+        when(pool.warmup()).thenReturn(Mono.just(10));
+        return metrics;
+    }
+
+    private static void exhaust(final PoolMetrics metrics, final int pendingAcquire) {
+        when(metrics.acquiredSize()).thenReturn(10);
+        when(metrics.idleSize()).thenReturn(0);
+        when(metrics.pendingAcquireSize()).thenReturn(pendingAcquire);
+    }
+
+    @Test
+    @DisplayName("The pool is DOWN until its initial connections are open")
+    public void warmUpTest() {
+        final Sinks.One<Integer> warmup = Sinks.one();
+        when(primary.warmup()).thenReturn(warmup.asMono());
+        final ConnectionPoolHealthIndicator indicator = new ConnectionPoolHealthIndicator(primary, MAX_PENDING_ACQUIRE);
+
+        assertEquals(Status.DOWN, indicator.health().getStatus());
+        indicator.warmUp();
+        assertEquals(Status.DOWN, indicator.health().getStatus());
+        assertEquals("warming up", indicator.health().getDetails().get("reason"));
+
+        warmup.tryEmitValue(10);
+        final Health health = indicator.health();
+        assertEquals(Status.UP, health.getStatus());
+        assertEquals(2, health.getDetails().get("acquired"));
+        assertEquals(8, health.getDetails().get("idle"));
+        assertEquals(10, health.getDetails().get("maxSize"));
+    }
+
+    @Test
+    @DisplayName("A warm pool is OUT_OF_SERVICE while all its connections are acquired and too many requests wait for one")
+    public void exhaustedPoolTest() {
+        final ConnectionPoolHealthIndicator indicator = new ConnectionPoolHealthIndicator(primary, MAX_PENDING_ACQUIRE);
+        indicator.warmUp();
+
+        //the requests waiting for a connection up to the threshold are a busy pool, not an exhausted one
+        exhaust(primaryMetrics, MAX_PENDING_ACQUIRE);
+        assertEquals(Status.UP, indicator.health().getStatus());
+
+        exhaust(primaryMetrics, MAX_PENDING_ACQUIRE + 1);
+        final Health health = indicator.health();
+        assertEquals(Status.OUT_OF_SERVICE, health.getStatus());
+        assertEquals("the primary pool is exhausted", health.getDetails().get("reason"));
+        assertEquals(MAX_PENDING_ACQUIRE + 1, health.getDetails().get("pendingAcquire"));
+
+        //the queue drained
+        when(primaryMetrics.acquiredSize()).thenReturn(9);
+        when(primaryMetrics.pendingAcquireSize()).thenReturn(0);
+        assertEquals(Status.UP, indicator.health().getStatus());
+    }
+
+    @Test
+    @DisplayName("Both pools of a read replica are warmed up, and an exhausted replica pool takes the instance out of service")
+    @SuppressWarnings("unchecked")
+    public void readReplicaTest() {
+        final Sinks.One<Integer> replicaWarmup = Sinks.one();
+        when(replica.warmup()).thenReturn(replicaWarmup.asMono());
+        final ConnectionPoolHealthIndicator indicator =
+            new ConnectionPoolHealthIndicator(new ReadWriteRoutingConnectionFactory(primary, replica), MAX_PENDING_ACQUIRE);
+
+        indicator.warmUp();
+        assertEquals(Status.DOWN, indicator.health().getStatus());
+        replicaWarmup.tryEmitValue(10);
+        Health health = indicator.health();
+        assertEquals(Status.UP, health.getStatus());
+        assertEquals(2, health.getDetails().get("acquired"));
+        assertEquals(2, ((Map<String, Object>) health.getDetails().get("replica")).get("acquired"));
+
+        exhaust(replicaMetrics, MAX_PENDING_ACQUIRE + 1);
+        health = indicator.health();
+        assertEquals(Status.OUT_OF_SERVICE, health.getStatus());
+        assertEquals("the replica pool is exhausted", health.getDetails().get("reason"));
+    }
+}
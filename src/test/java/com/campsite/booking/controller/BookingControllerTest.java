@@ -1,13 +1,41 @@
 package com.campsite.booking.controller;
 
+import com.campsite.booking.dto.AvailabilityChange;
 import com.campsite.booking.dto.BookingRequest;
+import com.campsite.booking.dto.BookingResponse;
+import com.campsite.booking.dto.BulkBookingResult;
+import com.campsite.booking.dto.HoldRequest;
+import com.campsite.booking.dto.HoldResponse;
+import com.campsite.booking.dto.Stay;
 import com.campsite.booking.dto.UpdateRequest;
 import com.campsite.booking.entity.Booking;
 import com.campsite.booking.entity.BookingDate;
+import com.campsite.booking.entity.Site;
 import com.campsite.booking.exception.GlobalErrorAttributes;
+import com.campsite.booking.filter.AdaptiveConcurrencyLimiter;
+import com.campsite.booking.filter.CorrelationId;
 import com.campsite.booking.repository.BookingDateRepository;
 import com.campsite.booking.repository.BookingRepository;
+import com.campsite.booking.repository.NightlyBookingDateStorage;
+import com.campsite.booking.repository.SiteRepository;
+import com.campsite.booking.service.AvailabilityChangeFeed;
+import com.campsite.booking.service.AvailabilityIndex;
+import com.campsite.booking.service.BookingCache;
+import com.campsite.booking.service.BookingMetrics;
 import com.campsite.booking.service.BookingService;
+import com.campsite.booking.service.BookingWriter;
+import com.campsite.booking.service.BulkBookingService;
+import com.campsite.booking.service.DateHolds;
+import com.campsite.booking.service.DateSequencer;
+import com.campsite.booking.service.IdempotencyCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -17,43 +45,76 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.web.reactive.function.BodyInserters;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
 
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static java.time.temporal.ChronoUnit.DAYS;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(SpringExtension.class)
 @WebFluxTest
-@Import( {GlobalErrorAttributes.class, BookingService.class})
+@Import( {GlobalErrorAttributes.class, BookingService.class, BookingWriter.class, AvailabilityIndex.class, AvailabilityChangeFeed.class, NightlyBookingDateStorage.class,
+          BookingMetrics.class, SimpleMeterRegistry.class, AdaptiveConcurrencyLimiter.class, IdempotencyCache.class, BulkBookingService.class,
+          BookingCache.class, DateHolds.class, DateSequencer.class})
 public class BookingControllerTest {
     @MockBean
     private BookingDateRepository bookingDateRepository;
     @MockBean
     private BookingRepository bookingRepository;
+    @MockBean
+    private SiteRepository siteRepository;
 
     @Autowired
     private WebTestClient testClient;
 
+    @Autowired
+    private AvailabilityIndex availabilityIndex;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private AdaptiveConcurrencyLimiter limiter;
+
     private LocalDate currentDate = LocalDate.now();
 
     @Captor
@@ -62,6 +123,9 @@ public class BookingControllerTest {
     @Captor
     ArgumentCaptor<List<BookingDate>> bookingDate;
 
+    @Captor
+    ArgumentCaptor<List<BookingDate>> removedBookingDate;
+
     @BeforeEach
     public void setUp() {
         testClient = testClient.mutate().responseTimeout(Duration.ofSeconds(15))
@@ -72,19 +136,26 @@ public class BookingControllerTest {
                 return Mono.just(booking);
             });
 
-        when(bookingDateRepository.saveAll(anyList()))
-            .thenAnswer((Answer<Flux<BookingDate>>) invocation -> {
-                List<BookingDate> bookingDates = (List<BookingDate>) invocation.getArgument(0, List.class);
-                return Flux.fromIterable(bookingDates);
-            });
+        when(bookingDateRepository.insertAll(anyList())).thenReturn(Mono.empty());
+        when(bookingDateRepository.insertBooking(any(Booking.class))).thenReturn(Mono.just(1L));
+        when(bookingDateRepository.replace(anyList(), anyList())).thenReturn(Mono.empty());
+
+        loadAvailabilityIndex();
+    }
+
+    private void loadAvailabilityIndex(BookingDate... bookedDates) {
+        when(siteRepository.findAll(any(Sort.class)))
+            .thenReturn(Flux.just(new Site(1L, "Site 1"), new Site(2L, "Site 2"), new Site(3L, "Site 3")));
+        when(bookingDateRepository.findBookingDateByBookedDateBetweenOrderByBookedDateAsc(any(LocalDate.class), any(LocalDate.class)))
+            .thenReturn(Flux.just(bookedDates));
+        availabilityIndex.rebuild().block();
     }
 
     @Test
     @DisplayName("Query Availability return available dates")
     public void queryAvailabilitySuccessful() {
-        when(bookingDateRepository.findBookingDateByBookedDateBetweenOrderByBookedDateAsc(currentDate.plusDays(1), currentDate.plusDays(5)))
-            .thenReturn(Flux.just(new BookingDate(1L, currentDate.plusDays(2)),
-                                  new BookingDate(1L, currentDate.plusDays(3))));
+        loadAvailabilityIndex(new BookingDate(1L, 1L, currentDate.plusDays(2)),
+                              new BookingDate(1L, 1L, currentDate.plusDays(3)));
         testClient
             .get()
             .uri(ruiBuilder -> ruiBuilder
@@ -103,6 +174,374 @@ public class BookingControllerTest {
             .jsonPath("$.availableDates[2]").isEqualTo(getDateAsString(currentDate.plusDays(5)));
     }
 
+    @Test
+    @DisplayName("Query Availability is answered by 304 until the availability changes")
+    public void queryAvailabilityNotModified() {
+        String eTag = testClient
+            .get()
+            .uri("/booking/api/v1/availability?start={start}", currentDate.plusDays(1))
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().exists(HttpHeaders.ETAG)
+            .returnResult(String.class)
+            .getResponseHeaders()
+            .getETag();
+
+        testClient
+            .get()
+            .uri("/booking/api/v1/availability?start={start}", currentDate.plusDays(1))
+            .ifNoneMatch(eTag)
+            .exchange()
+            .expectStatus().isNotModified()
+            .expectBody().isEmpty();
+
+        testClient
+            .post()
+            .uri("/booking/api/v1/book")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(createBookingRequest(2, 3)))
+            .exchange()
+            .expectStatus().isCreated();
+
+        testClient
+            .get()
+            .uri("/booking/api/v1/availability?start={start}", currentDate.plusDays(1))
+            .ifNoneMatch(eTag)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().value(HttpHeaders.ETAG, newETag -> assertNotEquals(eTag, newETag));
+    }
+
+    @Test
+    @DisplayName("The tag of a site does not change with the bookings of the other sites, an invalid query is rejected whatever its tag")
+    public void queryAvailabilityNotModifiedBySite() {
+        String site1ETag = testClient
+            .get()
+            .uri("/booking/api/v1/availability?start={start}&site=1", currentDate.plusDays(1))
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(String.class)
+            .getResponseHeaders()
+            .getETag();
+        String site2ETag = testClient
+            .get()
+            .uri("/booking/api/v1/availability?start={start}&site=2", currentDate.plusDays(1))
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(String.class)
+            .getResponseHeaders()
+            .getETag();
+        assertNotEquals(site1ETag, site2ETag);
+
+        testClient
+            .get()
+            .uri("/booking/api/v1/availability?start={start}&end={end}&site=2", currentDate.plusDays(5), currentDate.plusDays(2))
+            .ifNoneMatch(site2ETag)
+            .exchange()
+            .expectStatus().isBadRequest();
+
+        //the booking is of site 1
+        testClient
+            .post()
+            .uri("/booking/api/v1/book")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(createBookingRequest(2, 3)))
+            .exchange()
+            .expectStatus().isCreated();
+
+        testClient
+            .get()
+            .uri("/booking/api/v1/availability?start={start}&site=2", currentDate.plusDays(1))
+            .ifNoneMatch(site2ETag)
+            .exchange()
+            .expectStatus().isNotModified();
+
+        testClient
+            .get()
+            .uri("/booking/api/v1/availability?start={start}&site=1", currentDate.plusDays(1))
+            .ifNoneMatch(site1ETag)
+            .exchange()
+            .expectStatus().isOk();
+
+        String allSitesETag = testClient
+            .get()
+            .uri("/booking/api/v1/availability/stays?nights=1&start={start}", currentDate.plusDays(1))
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(String.class)
+            .getResponseHeaders()
+            .getETag();
+        testClient
+            .get()
+            .uri("/booking/api/v1/availability/stays?nights=4&start={start}", currentDate.plusDays(1))
+            .ifNoneMatch(allSitesETag)
+            .exchange()
+            .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("The availability tags of a restarted instance do not match the tags given before the restart")
+    public void availabilityETagAfterRestart() {
+        BookingService before = startService();
+        BookingService after = startService(new BookingDate(1L, 1L, currentDate.plusDays(2)));
+
+        //both count their versions from the start, only the id of the instance tells the different availability apart
+        String beforeETag = before.getAvailabilityETag(1L);
+        String afterETag = after.getAvailabilityETag(1L);
+        assertEquals(beforeETag.substring(beforeETag.indexOf('-')), afterETag.substring(afterETag.indexOf('-')));
+        assertNotEquals(beforeETag, afterETag);
+        assertNotEquals(before.getAvailabilityETag(null), after.getAvailabilityETag(null));
+    }
+
+    //a new instance of the service on the booked dates, with nothing shared with the one of the application
+    private BookingService startService(BookingDate... bookedDates) {
+        when(bookingDateRepository.findBookingDateByBookedDateBetweenOrderByBookedDateAsc(any(LocalDate.class), any(LocalDate.class)))
+            .thenReturn(Flux.just(bookedDates));
+        NightlyBookingDateStorage storage = new NightlyBookingDateStorage(bookingDateRepository);
+        AvailabilityChangeFeed changeFeed = new AvailabilityChangeFeed(16);
+        AvailabilityIndex index = new AvailabilityIndex(siteRepository, storage, changeFeed, 128, false);
+        index.rebuild().block();
+        return new BookingService(bookingRepository, storage, siteRepository, index,
+                                  new BookingWriter(bookingRepository, storage, index, Optional.empty(), Optional.empty()),
+                                  changeFeed,
+                                  new BookingMetrics(new SimpleMeterRegistry(), index),
+                                  new IdempotencyCache(Duration.ofMinutes(1), 16),
+                                  new BookingCache(bookingRepository, storage, 16, Duration.ofMinutes(1)),
+                                  new DateHolds(Duration.ofSeconds(60), 16),
+                                  new DateSequencer(16));
+    }
+
+    @Test
+    @DisplayName("the correlation id of the request is returned, a new one when it is missing or invalid")
+    public void correlationIdTest() {
+        testClient
+            .get()
+            .uri("/booking/api/v1/availability?start={start}", currentDate.plusDays(1))
+            .header(CorrelationId.HEADER, "client-42")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().valueEquals(CorrelationId.HEADER, "client-42");
+
+        testClient
+            .get()
+            .uri("/booking/api/v1/availability?start={start}", currentDate.plusDays(1))
+            .header(CorrelationId.HEADER, "no\nnew lines")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().value(CorrelationId.HEADER, id -> assertTrue(id.matches("[0-9a-f]+")));
+    }
+
+    @Test
+    @DisplayName("the logs which run after the request body is decoded and the DB is read have the correlation id of the request")
+    public void correlationIdAfterBodyTest() throws InterruptedException {
+        final Queue<String> holdLogs = new ConcurrentLinkedQueue<>();
+        final LoggerContext loggerContext = (LoggerContext) LogManager.getContext(false);
+        final Appender appender = new AbstractAppender("holdLogs", null, null, true, Property.EMPTY_ARRAY) {
+            @Override
+            public void append(LogEvent event) {
+                if (event.getMessage().getFormattedMessage().startsWith("Hold site")) {
+                    holdLogs.add(String.valueOf(event.getContextData().<String>getValue(CorrelationId.KEY)));
+                }
+            }
+        };
+        appender.start();
+        loggerContext.getConfiguration().getRootLogger().addAppender(appender, null, null);
+        loggerContext.updateLoggers();
+        try {
+            //site 4 is not in the index: the hold is logged once the body is decoded and the site is read, on another thread
+            when(siteRepository.existsById(4L)).thenReturn(Mono.just(true).delayElement(Duration.ofMillis(50)));
+            when(bookingDateRepository.findBookingDateBySiteIdAndBookedDateBetweenOrderByBookedDateAsc(anyLong(), any(LocalDate.class), any(LocalDate.class)))
+                .thenReturn(Flux.empty());
+            testClient
+                .post()
+                .uri("/booking/api/v1/hold")
+                .header(CorrelationId.HEADER, "hold-42")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(BodyInserters.fromValue(new HoldRequest(currentDate.plusDays(3), currentDate.plusDays(3), 4L)))
+                .exchange()
+                .expectStatus().isCreated();
+
+            //the loggers are async
+            for (int i = 0; i < 50 && holdLogs.isEmpty(); i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(List.of("hold-42"), List.copyOf(holdLogs));
+        }
+        finally {
+            loggerContext.getConfiguration().getRootLogger().removeAppender(appender.getName());
+            loggerContext.updateLoggers();
+            appender.stop();
+        }
+    }
+
+    @Test
+    @DisplayName("Query Availability of another site")
+    public void queryAvailabilityOfSite() {
+        loadAvailabilityIndex(new BookingDate(1L, 1L, currentDate.plusDays(2)),
+                              new BookingDate(2L, 2L, currentDate.plusDays(4)));
+        testClient
+            .get()
+            .uri(ruiBuilder -> ruiBuilder
+                .path("/booking/api/v1/availability")
+                .queryParam("start", currentDate.plusDays(1))
+                .queryParam("end", currentDate.plusDays(5))
+                .queryParam("site", 2)
+                .build())
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.siteId").isEqualTo(2)
+            .jsonPath("$.availableDates.length()").isEqualTo(4)
+            .jsonPath("$.availableDates[2]").isEqualTo(getDateAsString(currentDate.plusDays(3)))
+            .jsonPath("$.availableDates[3]").isEqualTo(getDateAsString(currentDate.plusDays(5)));
+    }
+
+    @Test
+    @DisplayName("Query the sites available for a date range")
+    public void queryAvailableSites() {
+        loadAvailabilityIndex(new BookingDate(1L, 1L, currentDate.plusDays(2)),
+                              new BookingDate(2L, 3L, currentDate.plusDays(6)));
+        testClient
+            .get()
+            .uri(ruiBuilder -> ruiBuilder
+                .path("/booking/api/v1/availability/sites")
+                .queryParam("start", currentDate.plusDays(1))
+                .queryParam("end", currentDate.plusDays(5))
+                .build())
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.availableSites.length()").isEqualTo(2)
+            .jsonPath("$.availableSites[0]").isEqualTo(2)
+            .jsonPath("$.availableSites[1]").isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("A site added after the index is loaded is available once the index rolls forward")
+    public void queryAvailableSitesAfterNewSite() {
+        when(siteRepository.findAll(any(Sort.class)))
+            .thenReturn(Flux.just(new Site(1L, "Site 1"), new Site(2L, "Site 2"), new Site(3L, "Site 3"), new Site(4L, "Site 4")));
+        when(bookingDateRepository.findBookingDateByBookedDateBetweenOrderByBookedDateAsc(any(LocalDate.class), any(LocalDate.class)))
+            .thenReturn(Flux.just(new BookingDate(1L, 1L, currentDate.plusDays(2))));
+        availabilityIndex.rollForward();
+
+        testClient
+            .get()
+            .uri(ruiBuilder -> ruiBuilder
+                .path("/booking/api/v1/availability/sites")
+                .queryParam("start", currentDate.plusDays(1))
+                .queryParam("end", currentDate.plusDays(2))
+                .build())
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.availableSites.length()").isEqualTo(3)
+            .jsonPath("$.availableSites[2]").isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("Search the earliest stays of all the sites up to the limit")
+    public void searchStays() {
+        loadAvailabilityIndex(new BookingDate(1L, 1L, currentDate.plusDays(1)),
+                              new BookingDate(1L, 1L, currentDate.plusDays(2)),
+                              new BookingDate(2L, 2L, currentDate.plusDays(1)),
+                              new BookingDate(3L, 3L, currentDate.plusDays(2)));
+
+        testClient
+            .get()
+            .uri(ruiBuilder -> ruiBuilder
+                .path("/booking/api/v1/availability/stays")
+                .queryParam("nights", 2)
+                .queryParam("start", currentDate.plusDays(1))
+                .queryParam("end", currentDate.plusDays(5))
+                .queryParam("limit", 3)
+                .build())
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().exists(HttpHeaders.ETAG)
+            .expectBody()
+            .jsonPath("$.nights").isEqualTo(2)
+            .jsonPath("$.stays.length()").isEqualTo(3)
+            .jsonPath("$.stays[0].siteId").isEqualTo(2)
+            .jsonPath("$.stays[0].start").isEqualTo(getDateAsString(currentDate.plusDays(2)))
+            .jsonPath("$.stays[0].end").isEqualTo(getDateAsString(currentDate.plusDays(3)))
+            .jsonPath("$.stays[1].siteId").isEqualTo(1)
+            .jsonPath("$.stays[1].start").isEqualTo(getDateAsString(currentDate.plusDays(3)))
+            .jsonPath("$.stays[2].siteId").isEqualTo(2)
+            .jsonPath("$.stays[2].start").isEqualTo(getDateAsString(currentDate.plusDays(3)));
+
+        testClient
+            .get()
+            .uri(ruiBuilder -> ruiBuilder
+                .path("/booking/api/v1/availability/stays")
+                .queryParam("nights", 4)
+                .queryParam("start", currentDate.plusDays(1))
+                .build())
+            .exchange()
+            .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @DisplayName("Search all the stays of a site, the held nights are skipped")
+    public void searchStaysOfSiteWithHold() {
+        HoldResponse hold = testClient
+            .post()
+            .uri("/booking/api/v1/hold")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(new HoldRequest(currentDate.plusDays(3), currentDate.plusDays(3), 2L)))
+            .exchange()
+            .expectStatus().isCreated()
+            .expectBody(HoldResponse.class).returnResult().getResponseBody();
+
+        testClient
+            .get()
+            .uri(ruiBuilder -> ruiBuilder
+                .path("/booking/api/v1/availability/stays")
+                .queryParam("nights", 1)
+                .queryParam("start", currentDate.plusDays(1))
+                .queryParam("end", currentDate.plusDays(4))
+                .queryParam("site", 2)
+                .build())
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.stays.length()").isEqualTo(3)
+            .jsonPath("$.stays[1].start").isEqualTo(getDateAsString(currentDate.plusDays(2)))
+            .jsonPath("$.stays[2].start").isEqualTo(getDateAsString(currentDate.plusDays(4)));
+
+        testClient
+            .delete()
+            .uri("/booking/api/v1/hold/" + hold.getHoldToken())
+            .exchange()
+            .expectStatus().isNoContent();
+    }
+
+    @Test
+    @DisplayName("The stays of the index span its words")
+    public void findStaysAcrossWords() {
+        //the index starts today, its second word starts 64 days later
+        loadAvailabilityIndex(new BookingDate(1L, 1L, currentDate.plusDays(62)),
+                              new BookingDate(1L, 1L, currentDate.plusDays(65)));
+
+        List<LocalDate> starts = availabilityIndex.findStays(1L, currentDate.plusDays(60), currentDate.plusDays(70), 3, 10, (site, start) -> true)
+            .stream()
+            .map(Stay::getStart)
+            .collect(Collectors.toList());
+        assertEquals(List.of(currentDate.plusDays(66), currentDate.plusDays(67), currentDate.plusDays(68)), starts);
+
+        starts = availabilityIndex.findStays(1L, currentDate.plusDays(60), currentDate.plusDays(70), 2, 10, (site, start) -> true)
+            .stream()
+            .map(Stay::getStart)
+            .collect(Collectors.toList());
+        assertEquals(List.of(currentDate.plusDays(60), currentDate.plusDays(63), currentDate.plusDays(66),
+                             currentDate.plusDays(67), currentDate.plusDays(68), currentDate.plusDays(69)), starts);
+    }
+
     private String getDateAsString(LocalDate date) {
         return date.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
     }
@@ -110,8 +549,7 @@ public class BookingControllerTest {
     @Test
     @DisplayName("Query Availability with wide range")
     public void queryAvailabilityWideRange() {
-        when(bookingDateRepository.findBookingDateByBookedDateBetweenOrderByBookedDateAsc(any(LocalDate.class), any(LocalDate.class)))
-            .thenReturn(Flux.just(new BookingDate(1L, currentDate.plusDays(2))));
+        loadAvailabilityIndex(new BookingDate(1L, 1L, currentDate.plusDays(2)));
 
         long expectedAvailableDates = DAYS.between(currentDate.plusDays(1), currentDate.plusMonths(1).plusDays(1)) - 1;
         testClient
@@ -129,15 +567,12 @@ public class BookingControllerTest {
             .jsonPath("$.availableDates[0]").isEqualTo(getDateAsString(currentDate.plusDays(1)))
             .jsonPath("$.availableDates[1]").isEqualTo(getDateAsString(currentDate.plusDays(3)));
 
-        verify(bookingDateRepository).findBookingDateByBookedDateBetweenOrderByBookedDateAsc(currentDate.plusDays(1), currentDate.plusMonths(1));
+        verify(bookingDateRepository, never()).findBookingDateByBookedDateBetweenOrderByBookedDateAsc(currentDate.plusDays(1), currentDate.plusMonths(1));
     }
 
     @Test
     @DisplayName("Query Availability with start date only")
     public void queryAvailabilityWithStartDayOnly() {
-        when(bookingDateRepository.findBookingDateByBookedDateBetweenOrderByBookedDateAsc(any(LocalDate.class), any(LocalDate.class)))
-            .thenReturn(Flux.empty());
-
         long expectedAvailableDates = DAYS.between(currentDate.plusDays(1), currentDate.plusMonths(1).plusDays(1));
         testClient
             .get()
@@ -151,7 +586,7 @@ public class BookingControllerTest {
             .expectBody()
             .jsonPath("$.availableDates.length()").isEqualTo(expectedAvailableDates);
 
-        verify(bookingDateRepository).findBookingDateByBookedDateBetweenOrderByBookedDateAsc(currentDate.plusDays(1), currentDate.plusMonths(1));
+        verify(bookingDateRepository, never()).findBookingDateByBookedDateBetweenOrderByBookedDateAsc(currentDate.plusDays(1), currentDate.plusMonths(1));
     }
 
     @Test
@@ -185,13 +620,185 @@ public class BookingControllerTest {
             .expectBody()
             .jsonPath("$.bookingId")
             .value(bookingId -> {
-                verify(bookingRepository).save(bookingCaptor.capture());
-                verify(bookingDateRepository).saveAll(bookingDate.capture());
+                verify(bookingDateRepository).insertBooking(bookingCaptor.capture());
                 assertEquals(UUID.fromString(bookingId.toString()), bookingCaptor.getValue().getBookingId());
-                assertEquals(2, bookingDate.getValue().size());
+                assertEquals(currentDate.plusDays(1), bookingCaptor.getValue().getStart());
+                assertEquals(currentDate.plusDays(2), bookingCaptor.getValue().getEnd());
             });
     }
 
+    @Test
+    @DisplayName("a retry with the same Idempotency-Key gets the first response without booking again")
+    public void BookingTestIdempotent() {
+        String key = UUID.randomUUID().toString();
+        BookingRequest booking = createBookingRequest(1, 2);
+        UUID first = book(key, booking).expectStatus().isCreated()
+            .expectBody(BookingResponse.class).returnResult().getResponseBody().getBookingId();
+        UUID retried = book(key, booking).expectStatus().isCreated()
+            .expectBody(BookingResponse.class).returnResult().getResponseBody().getBookingId();
+
+        assertEquals(first, retried);
+        verify(bookingDateRepository).insertBooking(any(Booking.class));
+
+        book(key, createBookingRequest(2, 3)).expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+
+    @Test
+    @DisplayName("bulk booking writes the valid requests in one batch and returns a result per request")
+    public void BookingTestBulk() {
+        when(bookingRepository.saveAll(anyList()))
+            .thenAnswer(invocation -> Flux.fromIterable(invocation.<List<Booking>>getArgument(0)));
+        BookingRequest site2 = createBookingRequest(1, 2);
+        site2.setSiteId(2L);
+        BookingRequest noName = createBookingRequest(3, 3);
+        noName.setName(null);
+
+        List<BulkBookingResult> results = testClient
+            .post()
+            .uri("/booking/api/v1/book/bulk")
+            .contentType(MediaType.APPLICATION_NDJSON)
+            .accept(MediaType.APPLICATION_NDJSON)
+            .body(BodyInserters.fromPublisher(Flux.just(createBookingRequest(1, 2), createBookingRequest(0, 1), site2, noName),
+                                              BookingRequest.class))
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(BulkBookingResult.class)
+            .getResponseBody()
+            .collectSortedList((a, b) -> Long.compare(a.getIndex(), b.getIndex()))
+            .block();
+
+        assertEquals(List.of(201, 400, 201, 400), results.stream().map(BulkBookingResult::getStatus).collect(Collectors.toList()));
+        assertNotEquals(null, results.get(0).getBookingId());
+        assertEquals("Name cannot be missing or empty", results.get(3).getMessage());
+        verify(bookingDateRepository).insertAll(bookingDate.capture());
+        assertEquals(4, bookingDate.getValue().size());
+        assertFalse(availabilityIndex.isAvailable(2L, currentDate.plusDays(1), currentDate.plusDays(1)));
+    }
+
+    private WebTestClient.ResponseSpec book(String idempotencyKey, BookingRequest booking) {
+        return testClient
+            .post()
+            .uri("/booking/api/v1/book")
+            .header("Idempotency-Key", idempotencyKey)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(booking))
+            .exchange();
+    }
+
+    @Test
+    @DisplayName("booked dates are no longer available")
+    public void BookingUpdatesAvailabilityTest() {
+        testClient
+            .post()
+            .uri("/booking/api/v1/book")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(createBookingRequest(2, 3)))
+            .exchange()
+            .expectStatus().isCreated();
+
+        testClient
+            .get()
+            .uri(ruiBuilder -> ruiBuilder
+                .path("/booking/api/v1/availability")
+                .queryParam("start", currentDate.plusDays(1))
+                .queryParam("end", currentDate.plusDays(5))
+                .build())
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.availableDates.length()").isEqualTo(3)
+            .jsonPath("$.availableDates[1]").isEqualTo(getDateAsString(currentDate.plusDays(4)));
+    }
+
+    @Test
+    @DisplayName("held dates are not available, only the booking with the hold token gets them")
+    public void BookingTestWithHold() {
+        HoldResponse hold = testClient
+            .post()
+            .uri("/booking/api/v1/hold")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(new HoldRequest(currentDate.plusDays(2), currentDate.plusDays(3), null)))
+            .exchange()
+            .expectStatus().isCreated()
+            .expectBody(HoldResponse.class).returnResult().getResponseBody();
+        assertNotEquals(null, hold.getExpiresAt());
+
+        testClient
+            .get()
+            .uri(ruiBuilder -> ruiBuilder
+                .path("/booking/api/v1/availability")
+                .queryParam("start", currentDate.plusDays(1))
+                .queryParam("end", currentDate.plusDays(5))
+                .build())
+            .accept(MediaType.APPLICATION_JSON)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.availableDates.length()").isEqualTo(3)
+            .jsonPath("$.availableDates[1]").isEqualTo(getDateAsString(currentDate.plusDays(4)));
+
+        book(UUID.randomUUID().toString(), createBookingRequest(3, 4)).expectStatus().isEqualTo(HttpStatus.CONFLICT);
+        verify(bookingDateRepository, never()).insertBooking(any(Booking.class));
+
+        BookingRequest withHold = createBookingRequest(2, 3);
+        withHold.setHoldToken(hold.getHoldToken());
+        book(UUID.randomUUID().toString(), withHold).expectStatus().isCreated();
+        verify(bookingDateRepository).insertBooking(any(Booking.class));
+        testClient
+            .delete()
+            .uri("/booking/api/v1/hold/" + hold.getHoldToken())
+            .exchange()
+            .expectStatus().isNotFound();
+    }
+
+    @Test
+    @DisplayName("the nights of a hold are claimed before they are checked, a booking of them during the check fails")
+    public void bookingDuringHoldTest() throws Exception {
+        //site 4 is not in the index: the hold reads the DB, which waits for the gate
+        final Sinks.Empty<Void> gate = Sinks.empty();
+        when(siteRepository.existsById(4L)).thenReturn(Mono.just(true));
+        when(bookingDateRepository.findBookingDateBySiteIdAndBookedDateBetweenOrderByBookedDateAsc(eq(4L), any(LocalDate.class), any(LocalDate.class)))
+            .thenReturn(Flux.<BookingDate>empty().delaySubscription(gate.asMono()));
+        final CompletableFuture<HoldResponse> hold = CompletableFuture.supplyAsync(() -> testClient
+            .post()
+            .uri("/booking/api/v1/hold")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(new HoldRequest(currentDate.plusDays(2), currentDate.plusDays(3), 4L)))
+            .exchange()
+            .expectStatus().isCreated()
+            .expectBody(HoldResponse.class).returnResult().getResponseBody());
+        verify(bookingDateRepository, timeout(5000))
+            .findBookingDateBySiteIdAndBookedDateBetweenOrderByBookedDateAsc(eq(4L), any(LocalDate.class), any(LocalDate.class));
+
+        BookingRequest request = createBookingRequest(3, 4);
+        request.setSiteId(4L);
+        book(UUID.randomUUID().toString(), request).expectStatus().isEqualTo(HttpStatus.CONFLICT);
+        verify(bookingDateRepository, never()).insertBooking(any(Booking.class));
+
+        gate.tryEmitEmpty();
+        testClient
+            .delete()
+            .uri("/booking/api/v1/hold/" + hold.get(15, TimeUnit.SECONDS).getHoldToken())
+            .exchange()
+            .expectStatus().isNoContent();
+    }
+
+    @Test
+    @DisplayName("a hold of booked nights fails and gives back the nights it claimed")
+    public void holdOfBookedDatesTest() {
+        loadAvailabilityIndex(new BookingDate(1L, 1L, currentDate.plusDays(3)));
+        testClient
+            .post()
+            .uri("/booking/api/v1/hold")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(new HoldRequest(currentDate.plusDays(2), currentDate.plusDays(3), null)))
+            .exchange()
+            .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+
+        book(UUID.randomUUID().toString(), createBookingRequest(2, 2)).expectStatus().isCreated();
+    }
+
     private BookingRequest createBookingRequest(int daysAfterTodayAsStart, int daysAfterTodayAsEnd) {
         BookingRequest booking = new BookingRequest("name",
                                                     "e@e",
@@ -200,6 +807,114 @@ public class BookingControllerTest {
         return booking;
     }
 
+    @Test
+    @DisplayName("booking of booked dates fails with the free dates nearby, before any write")
+    public void BookingTestFailDueToBookedDates() {
+        loadAvailabilityIndex(new BookingDate(1L, 9L, Site.DEFAULT_SITE_ID, currentDate.plusDays(3)));
+        double conflicts = meterRegistry.counter("booking.conflicts", "operation", "book").count();
+        testClient
+            .post()
+            .uri("/booking/api/v1/book")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(createBookingRequest(2, 4)))
+            .exchange()
+            .expectStatus().isEqualTo(HttpStatus.CONFLICT)
+            .expectBody()
+            .jsonPath("$.availableDates.length()").isEqualTo(6)
+            .jsonPath("$.availableDates[0]").isEqualTo(getDateAsString(currentDate.plusDays(1)))
+            .jsonPath("$.availableDates[2]").isEqualTo(getDateAsString(currentDate.plusDays(4)));
+        verify(bookingDateRepository, never()).insertBooking(any(Booking.class));
+        assertEquals(conflicts + 1, meterRegistry.counter("booking.conflicts", "operation", "book").count());
+    }
+
+    @Test
+    @DisplayName("concurrent bookings of the same dates are written one after the other, the later one fails before any write")
+    public void BookingTestSequencedWrites() {
+        when(bookingDateRepository.insertBooking(any(Booking.class)))
+            .thenReturn(Mono.just(1L).delayElement(Duration.ofMillis(200)));
+        List<HttpStatus> statuses = Flux.just(createBookingRequest(1, 2), createBookingRequest(2, 3))
+            .flatMap(booking -> Mono.fromCallable(() -> book(UUID.randomUUID().toString(), booking)
+                                     .returnResult(BookingResponse.class).getStatus())
+                                 .subscribeOn(Schedulers.boundedElastic()))
+            .collectSortedList()
+            .block();
+
+        assertEquals(List.of(HttpStatus.CREATED, HttpStatus.CONFLICT), statuses);
+        verify(bookingDateRepository).insertBooking(any(Booking.class));
+    }
+
+    @Test
+    @DisplayName("booking fails with 409 when the dates are booked concurrently")
+    public void BookingTestFailDueToUniqueViolation() {
+        when(bookingDateRepository.insertBooking(any(Booking.class)))
+            .thenReturn(Mono.error(new DuplicateKeyException("duplicate key value violates unique constraint \"booking_date_booked_date_site\"")));
+        testClient
+            .post()
+            .uri("/booking/api/v1/book")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(createBookingRequest(1, 2)))
+            .exchange()
+            .expectStatus().isEqualTo(HttpStatus.CONFLICT)
+            .expectBody()
+            .jsonPath("$.availableDates").isArray();
+    }
+
+    @Test
+    @DisplayName("committed bookings are streamed as availability changes")
+    public void streamAvailabilityChangesTest() {
+        Flux<ServerSentEvent<AvailabilityChange>> changes = testClient
+            .get()
+            .uri("/booking/api/v1/availability/changes?site=1")
+            .accept(MediaType.TEXT_EVENT_STREAM)
+            .exchange()
+            .expectStatus().isOk()
+            .returnResult(new ParameterizedTypeReference<ServerSentEvent<AvailabilityChange>>() { })
+            .getResponseBody()
+            .filter(event -> event.data() != null);
+
+        StepVerifier.create(changes)
+            .then(() -> testClient
+                .post()
+                .uri("/booking/api/v1/book")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(BodyInserters.fromValue(createBookingRequest(2, 3)))
+                .exchange()
+                .expectStatus().isCreated())
+            .assertNext(event -> {
+                assertEquals("availability", event.event());
+                assertEquals(Site.DEFAULT_SITE_ID, event.data().getSiteId());
+                assertEquals(List.of(currentDate.plusDays(2), currentDate.plusDays(3)), event.data().getBookedDates());
+                assertTrue(event.data().getFreedDates().isEmpty());
+            })
+            .thenCancel()
+            .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    @DisplayName("booking is shed with 429 while the write limit is used up")
+    public void BookingTestShedOverLimit() {
+        int acquired = 0;
+        while (limiter.tryAcquire()) {
+            acquired++;
+        }
+        try {
+            testClient
+                .post()
+                .uri("/booking/api/v1/book")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(BodyInserters.fromValue(createBookingRequest(1, 2)))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "1");
+            verify(bookingRepository, never()).save(any(Booking.class));
+        }
+        finally {
+            for (int i = 0; i < acquired; i++) {
+                limiter.release(0, false);
+            }
+        }
+    }
+
     @Test
     @DisplayName("booking fails due to start date is too early")
     public void BookingTestFailDueToStartDate() {
@@ -243,6 +958,22 @@ public class BookingControllerTest {
     }
 
 
+    @Test
+    @DisplayName("booking fails due to the site does not exist")
+    public void BookingTestFailDueToUnknownSite() {
+        when(siteRepository.existsById(9L)).thenReturn(Mono.just(false));
+        BookingRequest booking = createBookingRequest(1, 2);
+        booking.setSiteId(9L);
+        testClient
+            .post()
+            .uri("/booking/api/v1/book")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(booking))
+            .exchange()
+            .expectStatus().isBadRequest();
+        verify(bookingRepository, never()).save(any(Booking.class));
+    }
+
     @Test
     @DisplayName("booking fails due to missing name")
     public void BookingTestFailWithoutName() {
@@ -259,6 +990,7 @@ public class BookingControllerTest {
     private Booking createBooking(long bookingId, UUID bookingUUID, int daysAfterTodayAsStart, int daysAfterTodayAsEnd) {
         Booking booking = new Booking(bookingId,
                                       bookingUUID,
+                                      Site.DEFAULT_SITE_ID,
                                       "name",
                                       "e@e",
                                       currentDate.plusDays(daysAfterTodayAsStart),
@@ -267,7 +999,7 @@ public class BookingControllerTest {
     }
 
     private BookingDate createBookingDate(long bookingDateId, long bookingId, int daysAfterToday) {
-        return new BookingDate(bookingDateId, bookingId, currentDate.plusDays(daysAfterToday));
+        return new BookingDate(bookingDateId, bookingId, Site.DEFAULT_SITE_ID, currentDate.plusDays(daysAfterToday));
     }
 
     @Test
@@ -278,15 +1010,13 @@ public class BookingControllerTest {
 
         //mock existing booking
         Booking booking = createBooking(bookingId, bookingUUID, 1, 1);
-        when(bookingRepository.findBookingByBookingId(bookingUUID)).thenReturn(Mono.just(booking));
+        when(bookingRepository.lockBookingByBookingId(bookingUUID)).thenReturn(Mono.just(booking));
 
         //mock existing booking date (only 1 day)
         BookingDate bookingDate = createBookingDate(1L, bookingId, 1);
         when(bookingDateRepository.findBookingDateByBookingIdOrderByBookedDateAsc(bookingId))
             .thenReturn(Flux.just(bookingDate));
 
-        when(bookingDateRepository.deleteAllByBookingId(bookingId)).thenReturn(Mono.empty());
-
         String newName = "newName";
         String newEmail = "new@email";
         UpdateRequest update = createUpdateRequest(newName, newEmail, 1, 3);
@@ -304,12 +1034,13 @@ public class BookingControllerTest {
                 Booking updatedBooking = this.bookingCaptor.getValue();
                 assertEquals(newName, updatedBooking.getName());
                 assertEquals(newEmail, updatedBooking.getEmail());
-                verify(bookingDateRepository).saveAll(this.bookingDate.capture());
+                //the first day is kept, only the 2 new days are inserted
+                verify(bookingDateRepository).replace(this.removedBookingDate.capture(), this.bookingDate.capture());
+                assertTrue(this.removedBookingDate.getValue().isEmpty());
                 final List<BookingDate> bookingDates = this.bookingDate.getValue();
-                assertEquals(3, bookingDates.size());
-                assertEquals(currentDate.plusDays(1), bookingDates.get(0).getBookedDate());
-                assertEquals(currentDate.plusDays(2), bookingDates.get(1).getBookedDate());
-                assertEquals(currentDate.plusDays(3), bookingDates.get(2).getBookedDate());
+                assertEquals(2, bookingDates.size());
+                assertEquals(currentDate.plusDays(2), bookingDates.get(0).getBookedDate());
+                assertEquals(currentDate.plusDays(3), bookingDates.get(1).getBookedDate());
             });
     }
 
@@ -321,7 +1052,7 @@ public class BookingControllerTest {
 
         //mock existing booking
         Booking booking = createBooking(bookingId, bookingUUID, 1, 1);
-        when(bookingRepository.findBookingByBookingId(bookingUUID)).thenReturn(Mono.just(booking));
+        when(bookingRepository.lockBookingByBookingId(bookingUUID)).thenReturn(Mono.just(booking));
 
         String newName = "newName";
         String newEmail = "new@email";
@@ -354,15 +1085,13 @@ public class BookingControllerTest {
 
         //mock existing booking
         Booking booking = createBooking(bookingId, bookingUUID, 1, 1);
-        when(bookingRepository.findBookingByBookingId(bookingUUID)).thenReturn(Mono.just(booking));
+        when(bookingRepository.lockBookingByBookingId(bookingUUID)).thenReturn(Mono.just(booking));
 
         //mock existing booking date (only 1 day)
         BookingDate bookingDate = createBookingDate(1L, bookingId, 1);
         when(bookingDateRepository.findBookingDateByBookingIdOrderByBookedDateAsc(bookingId))
             .thenReturn(Flux.just(bookingDate));
 
-        when(bookingDateRepository.deleteAllByBookingId(bookingId)).thenReturn(Mono.empty());
-
         UpdateRequest update = createUpdateRequest(null, null, 1, 3);
         testClient
             .patch()
@@ -375,12 +1104,46 @@ public class BookingControllerTest {
             .jsonPath("$.bookingId")
             .value(resultId -> {
                 verify(bookingRepository, never()).save(any(Booking.class));
-                verify(bookingDateRepository).saveAll(this.bookingDate.capture());
+                //the first day is kept, only the 2 new days are inserted
+                verify(bookingDateRepository).replace(this.removedBookingDate.capture(), this.bookingDate.capture());
+                assertTrue(this.removedBookingDate.getValue().isEmpty());
+                final List<BookingDate> bookingDates = this.bookingDate.getValue();
+                assertEquals(2, bookingDates.size());
+                assertEquals(currentDate.plusDays(2), bookingDates.get(0).getBookedDate());
+                assertEquals(currentDate.plusDays(3), bookingDates.get(1).getBookedDate());
+            });
+    }
+
+    @Test
+    @DisplayName("update shifting the dates writes only the changed dates")
+    public void updateTestShiftedDates() {
+        long bookingId = 1;
+        UUID bookingUUID = UUID.randomUUID();
+
+        Booking booking = createBooking(bookingId, bookingUUID, 1, 3);
+        when(bookingRepository.lockBookingByBookingId(bookingUUID)).thenReturn(Mono.just(booking));
+
+        BookingDate firstDate = createBookingDate(1L, bookingId, 1);
+        when(bookingDateRepository.findBookingDateByBookingIdOrderByBookedDateAsc(bookingId))
+            .thenReturn(Flux.just(firstDate, createBookingDate(2L, bookingId, 2), createBookingDate(3L, bookingId, 3)));
+
+        UpdateRequest update = createUpdateRequest(null, null, 2, 4);
+        testClient
+            .patch()
+            .uri("/booking/api/v1/update/{id}", bookingUUID.toString())
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(update))
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.bookingId")
+            .value(resultId -> {
+                verify(bookingDateRepository).replace(this.removedBookingDate.capture(), this.bookingDate.capture());
+                assertEquals(List.of(firstDate), this.removedBookingDate.getValue());
                 final List<BookingDate> bookingDates = this.bookingDate.getValue();
-                assertEquals(3, bookingDates.size());
-                assertEquals(currentDate.plusDays(1), bookingDates.get(0).getBookedDate());
-                assertEquals(currentDate.plusDays(2), bookingDates.get(1).getBookedDate());
-                assertEquals(currentDate.plusDays(3), bookingDates.get(2).getBookedDate());
+                assertEquals(1, bookingDates.size());
+                assertEquals(currentDate.plusDays(4), bookingDates.get(0).getBookedDate());
+                verify(bookingDateRepository, never()).insertAll(anyList());
             });
     }
 
@@ -398,7 +1161,7 @@ public class BookingControllerTest {
         UUID bookingUUID = UUID.randomUUID();
 
         Booking bookingData = createBooking(bookingId, bookingUUID, 1, 3);
-        when(bookingRepository.findBookingByBookingId(bookingUUID)).thenReturn(Mono.just(bookingData));
+        when(bookingRepository.lockBookingByBookingId(bookingUUID)).thenReturn(Mono.just(bookingData));
 
         when(bookingDateRepository.findBookingDateByBookingIdOrderByBookedDateAsc(1L))
             .thenReturn(Flux.just(createBookingDate(1L, bookingId, 1)));
@@ -418,7 +1181,7 @@ public class BookingControllerTest {
     public void updateTestFailedDueToMissingBooking() {
         UUID bookingId = UUID.randomUUID();
 
-        when(bookingRepository.findBookingByBookingId(bookingId)).thenReturn(Mono.empty());
+        when(bookingRepository.lockBookingByBookingId(bookingId)).thenReturn(Mono.empty());
 
         UpdateRequest update = createUpdateRequest(null, null, 1, 1);
         testClient
@@ -436,7 +1199,9 @@ public class BookingControllerTest {
         UUID bookingId = UUID.randomUUID();
 
         Booking bookingData = createBooking(1L, bookingId, 1, 2);
-        when(bookingRepository.findBookingByBookingId(bookingId)).thenReturn(Mono.just(bookingData));
+        when(bookingRepository.lockBookingByBookingId(bookingId)).thenReturn(Mono.just(bookingData));
+        when(bookingDateRepository.findBookingDateByBookingIdOrderByBookedDateAsc(1L))
+            .thenReturn(Flux.just(createBookingDate(1L, 1L, 1), createBookingDate(2L, 1L, 2)));
         when(bookingRepository.deleteBookingByBookingId(bookingId)).thenReturn(Mono.empty());
 
         testClient
@@ -448,18 +1213,122 @@ public class BookingControllerTest {
             .jsonPath("$.bookingId").isEqualTo(bookingId.toString());
     }
 
+    @Test
+    @DisplayName("a booking is read once from the DB until it is cancelled")
+    public void getBookingTest() {
+        UUID bookingId = UUID.randomUUID();
+
+        Booking bookingData = createBooking(1L, bookingId, 1, 2);
+        bookingData.setStart(null);
+        bookingData.setEnd(null);
+        when(bookingRepository.findBookingByBookingId(bookingId)).thenReturn(Mono.just(bookingData));
+        when(bookingRepository.lockBookingByBookingId(bookingId)).thenReturn(Mono.just(bookingData));
+        when(bookingDateRepository.findBookingDateByBookingIdOrderByBookedDateAsc(1L))
+            .thenReturn(Flux.just(createBookingDate(1L, 1L, 1), createBookingDate(2L, 1L, 2)));
+        when(bookingRepository.deleteBookingByBookingId(bookingId)).thenReturn(Mono.empty());
+
+        for (int i = 0; i < 2; i++) {
+            testClient
+                .get()
+                .uri("/booking/api/v1/booking/{id}", bookingId.toString())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.bookingId").isEqualTo(bookingId.toString())
+                .jsonPath("$.start").isEqualTo(getDateAsString(currentDate.plusDays(1)))
+                .jsonPath("$.end").isEqualTo(getDateAsString(currentDate.plusDays(2)));
+        }
+        verify(bookingRepository).findBookingByBookingId(bookingId);
+
+        testClient
+            .delete()
+            .uri("/booking/api/v1/cancel/{id}", bookingId.toString())
+            .exchange()
+            .expectStatus().isOk();
+        when(bookingRepository.findBookingByBookingId(bookingId)).thenReturn(Mono.empty());
+
+        testClient
+            .get()
+            .uri("/booking/api/v1/booking/{id}", bookingId.toString())
+            .exchange()
+            .expectStatus().isNotFound();
+    }
+
     @Test
     @DisplayName("cancellation fails due to missing the booking")
     public void cancelTestFailed() {
         UUID bookingId = UUID.randomUUID();
 
-        when(bookingRepository.findBookingByBookingId(bookingId)).thenReturn(Mono.empty());
+        when(bookingRepository.lockBookingByBookingId(bookingId)).thenReturn(Mono.empty());
+
+        testClient
+            .delete()
+            .uri("/booking/api/v1/cancel/{id}", bookingId.toString())
+            .exchange()
+            .expectStatus().isNotFound();
+    }
+
+    //the booking is looked up once, so it is cached as it was then
+    private void cacheBooking(Booking booking) {
+        when(bookingRepository.findBookingByBookingId(booking.getBookingId())).thenReturn(Mono.just(booking));
+        testClient
+            .get()
+            .uri("/booking/api/v1/booking/{id}", booking.getBookingId().toString())
+            .exchange()
+            .expectStatus().isOk();
+    }
+
+    @Test
+    @DisplayName("update writes the booking read in its transaction, not the cached one")
+    public void updateAfterChangeOfAnotherInstanceTest() {
+        UUID bookingId = UUID.randomUUID();
+        when(bookingDateRepository.findBookingDateByBookingIdOrderByBookedDateAsc(1L))
+            .thenReturn(Flux.just(createBookingDate(1L, 1L, 1), createBookingDate(2L, 1L, 2)));
+        cacheBooking(createBooking(1L, bookingId, 1, 2));
+
+        //another instance changed the name since
+        Booking current = createBooking(1L, bookingId, 1, 2);
+        current.setName("otherName");
+        when(bookingRepository.lockBookingByBookingId(bookingId)).thenReturn(Mono.just(current));
+
+        testClient
+            .patch()
+            .uri("/booking/api/v1/update/{id}", bookingId.toString())
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(new UpdateRequest(null, "new@email", null, null)))
+            .exchange()
+            .expectStatus().isOk();
+
+        verify(bookingRepository).save(this.bookingCaptor.capture());
+        assertEquals("otherName", this.bookingCaptor.getValue().getName());
+        assertEquals("new@email", this.bookingCaptor.getValue().getEmail());
+    }
+
+    @Test
+    @DisplayName("update and cancellation of a cached booking which another instance cancelled are not found")
+    public void updateAfterCancellationOfAnotherInstanceTest() {
+        UUID bookingId = UUID.randomUUID();
+        when(bookingDateRepository.findBookingDateByBookingIdOrderByBookedDateAsc(1L))
+            .thenReturn(Flux.just(createBookingDate(1L, 1L, 1), createBookingDate(2L, 1L, 2)));
+        cacheBooking(createBooking(1L, bookingId, 1, 2));
+        when(bookingRepository.lockBookingByBookingId(bookingId)).thenReturn(Mono.empty());
+
+        testClient
+            .patch()
+            .uri("/booking/api/v1/update/{id}", bookingId.toString())
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(BodyInserters.fromValue(createUpdateRequest("newName", null, 2, 3)))
+            .exchange()
+            .expectStatus().isNotFound();
 
         testClient
             .delete()
             .uri("/booking/api/v1/cancel/{id}", bookingId.toString())
             .exchange()
             .expectStatus().isNotFound();
+
+        verify(bookingRepository, never()).save(any(Booking.class));
+        verify(bookingRepository, never()).deleteBookingByBookingId(bookingId);
     }
 
 }
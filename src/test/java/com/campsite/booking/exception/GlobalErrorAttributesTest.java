@@ -0,0 +1,142 @@
+package com.campsite.booking.exception;
+
+import com.campsite.booking.filter.CorrelationId;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.error.ErrorAttributeOptions;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.ServerRequest;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GlobalErrorAttributesTest {
+    private final GlobalErrorAttributes errorAttributes = new GlobalErrorAttributes(Duration.ofSeconds(10));
+
+    //the log events of the package, copied: the async loggers reuse them
+    private final Queue<Logged> logged = new ConcurrentLinkedQueue<>();
+    private LoggerContext loggerContext;
+    private Appender appender;
+
+    private static final class Logged {
+        private final String message;
+        private final Throwable thrown;
+        private final String correlationId;
+
+        private Logged(LogEvent event) {
+            this.message = event.getMessage().getFormattedMessage();
+            this.thrown = event.getThrown();
+            this.correlationId = event.getContextData().getValue(CorrelationId.KEY);
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        loggerContext = (LoggerContext) LogManager.getContext(false);
+        appender = new AbstractAppender("errorLogs", null, null, true, Property.EMPTY_ARRAY) {
+            @Override
+            public void append(LogEvent event) {
+                if (event.getLoggerName().startsWith(GlobalErrorAttributes.class.getPackageName())) {
+                    logged.add(new Logged(event));
+                }
+            }
+        };
+        appender.start();
+        loggerContext.getConfiguration().getRootLogger().addAppender(appender, null, null);
+        loggerContext.updateLoggers();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        loggerContext.getConfiguration().getRootLogger().removeAppender(appender.getName());
+        loggerContext.updateLoggers();
+        appender.stop();
+    }
+
+    private Map<String, Object> getErrorAttributes(final Throwable error, final String correlationId) {
+        final MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/booking/api/v1/book"));
+        exchange.getAttributes().put(CorrelationId.KEY, correlationId);
+        errorAttributes.storeErrorInformation(error, exchange);
+        return errorAttributes.getErrorAttributes(ServerRequest.create(exchange, HandlerStrategies.withDefaults().messageReaders()),
+                                                  ErrorAttributeOptions.defaults());
+    }
+
+    //the loggers are async, the events are waited for
+    private List<Logged> awaitLogged(final int count) throws InterruptedException {
+        for (int i = 0; i < 50 && logged.size() < count; i++) {
+            Thread.sleep(100);
+        }
+        return List.copyOf(logged);
+    }
+
+    @Test
+    @DisplayName("The client errors are counted by status and exception type, and logged as one line per kind by the scheduled flush")
+    public void clientErrorsTest() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            assertEquals(409, getErrorAttributes(new BookingConflictException(1L, LocalDate.now(), LocalDate.now(), List.of()), "c-" + i).get("status"));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(400, getErrorAttributes(new InvalidBookingException("bad dates " + i), "c-" + i).get("status"));
+        }
+        assertEquals(404, getErrorAttributes(new BookingNotFoundException(), "c").get("status"));
+
+        //nothing is logged until the flush
+        Thread.sleep(200);
+        assertTrue(logged.isEmpty());
+
+        errorAttributes.logRejectedRequests();
+        final List<String> lines = awaitLogged(3).stream().map(l -> l.message).sorted().collect(Collectors.toList());
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).startsWith("1 request(s) failed by 404 BookingNotFoundException in the last 10s"), lines.get(0));
+        assertTrue(lines.get(1).startsWith("100 request(s) failed by 409 BookingConflictException in the last 10s"), lines.get(1));
+        assertEquals("3 request(s) failed by 400 InvalidBookingException in the last 10s, the last one: 400 BAD_REQUEST \"bad dates 2\"", lines.get(2));
+
+        //the counts were reset, the kinds without failures since are not logged
+        getErrorAttributes(new BookingNotFoundException(), "c");
+        logged.clear();
+        errorAttributes.logRejectedRequests();
+        final List<Logged> next = awaitLogged(1);
+        Thread.sleep(200);
+        assertEquals(1, logged.size());
+        assertTrue(next.get(0).message.startsWith("1 request(s) failed by 404 BookingNotFoundException"));
+    }
+
+    @Test
+    @DisplayName("A server error is logged right away with its stack trace and the correlation id of its request")
+    public void serverErrorTest() throws InterruptedException {
+        final IllegalStateException error = new IllegalStateException("the pool is closed");
+
+        assertEquals(500, getErrorAttributes(error, "err-7").get("status"));
+
+        final List<Logged> lines = awaitLogged(1);
+        assertEquals(1, lines.size());
+        assertEquals("the pool is closed", lines.get(0).message);
+        assertEquals(error, lines.get(0).thrown);
+        assertTrue(lines.get(0).thrown.getStackTrace().length > 0);
+        assertEquals("err-7", lines.get(0).correlationId);
+
+        //it is not counted with the client errors
+        logged.clear();
+        errorAttributes.logRejectedRequests();
+        Thread.sleep(200);
+        assertTrue(logged.isEmpty());
+    }
+}
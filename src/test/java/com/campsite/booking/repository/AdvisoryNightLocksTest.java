@@ -0,0 +1,80 @@
+package com.campsite.booking.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.FetchSpec;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AdvisoryNightLocksTest {
+    private final LocalDate day = LocalDate.now().plusDays(10);
+
+    private DatabaseClient databaseClient;
+    private DatabaseClient.GenericExecuteSpec spec;
+    private AdvisoryNightLocks nightLocks;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        databaseClient = mock(DatabaseClient.class);
+        spec = mock(DatabaseClient.GenericExecuteSpec.class);
+        final FetchSpec<Map<String, Object>> fetchSpec = mock(FetchSpec.class);
+        when(databaseClient.sql(anyString())).thenReturn(spec);
+        when(spec.bind(anyString(), any())).thenReturn(spec);
+        when(spec.fetch()).thenReturn(fetchSpec);
+        when(fetchSpec.rowsUpdated()).thenReturn(Mono.just(1));
+        nightLocks = new AdvisoryNightLocks(databaseClient);
+    }
+
+    private Long[] lockedKeys() {
+        final ArgumentCaptor<Long[]> keys = ArgumentCaptor.forClass(Long[].class);
+        verify(spec).bind(eq("keys"), keys.capture());
+        return keys.getValue();
+    }
+
+    @Test
+    @DisplayName("The nights are locked by one call of lock_nights with their keys sorted and without duplicates")
+    public void sortedKeysTest() {
+        nightLocks.lock(3L, List.of(day.plusDays(2), day, day.plusDays(1), day)).block();
+
+        verify(databaseClient).sql("select lock_nights(:keys)");
+        assertArrayEquals(new Long[]{AdvisoryNightLocks.getKey(3L, day),
+                                     AdvisoryNightLocks.getKey(3L, day.plusDays(1)),
+                                     AdvisoryNightLocks.getKey(3L, day.plusDays(2))},
+                          lockedKeys());
+    }
+
+    @Test
+    @DisplayName("The order of the keys is the order of the nights, and the nights of a site are before the ones of the next site")
+    public void keyOrderTest() {
+        assertTrue(AdvisoryNightLocks.getKey(1L, day) < AdvisoryNightLocks.getKey(1L, day.plusDays(1)));
+        assertTrue(AdvisoryNightLocks.getKey(1L, day.plusDays(1000)) < AdvisoryNightLocks.getKey(2L, day));
+        assertEquals(2L, AdvisoryNightLocks.getKey(2L, day) >> 32);
+        assertEquals(day.toEpochDay(), AdvisoryNightLocks.getKey(2L, day) & 0xFFFFFFFFL);
+    }
+
+    @Test
+    @DisplayName("No nights, no query")
+    public void noNightsTest() {
+        nightLocks.lock(3L, List.of()).block();
+
+        verify(databaseClient, never()).sql(anyString());
+    }
+}
@@ -0,0 +1,116 @@
+package com.campsite.booking.repository;
+
+import com.campsite.booking.entity.BookingDate;
+import io.r2dbc.spi.Row;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.FetchSpec;
+import org.springframework.r2dbc.core.RowsFetchSpec;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RangeBookingDateStorageTest {
+    private final LocalDate day = LocalDate.now().plusDays(10);
+
+    private DatabaseClient databaseClient;
+    private DatabaseClient.GenericExecuteSpec spec;
+    private RangeBookingDateStorage storage;
+
+    @BeforeEach
+    public void setUp() {
+        databaseClient = mock(DatabaseClient.class);
+        spec = mock(DatabaseClient.GenericExecuteSpec.class);
+        when(databaseClient.sql(anyString())).thenReturn(spec);
+        when(spec.bind(anyString(), any())).thenReturn(spec);
+        storage = new RangeBookingDateStorage(databaseClient);
+    }
+
+    //the rows the queries return, as postgres returns them: [first night, last night + 1)
+    @SuppressWarnings("unchecked")
+    private void returnRanges(final Row... rows) {
+        when(spec.map(any(Function.class))).thenAnswer(invocation -> {
+            final Function<Row, Object> mapper = invocation.getArgument(0);
+            final RowsFetchSpec<Object> fetchSpec = mock(RowsFetchSpec.class);
+            when(fetchSpec.all()).thenReturn(Flux.just(rows).map(mapper));
+            return fetchSpec;
+        });
+    }
+
+    private static Row range(final long bookingId, final long siteId, final LocalDate firstNight, final LocalDate afterLastNight) {
+        final Row row = mock(Row.class);
+        when(row.get("booking_id", Long.class)).thenReturn(bookingId);
+        when(row.get("site_id", Long.class)).thenReturn(siteId);
+        when(row.get("first_night", LocalDate.class)).thenReturn(firstNight);
+        when(row.get("after_last_night", LocalDate.class)).thenReturn(afterLastNight);
+        return row;
+    }
+
+    private static List<LocalDate> getNights(final Flux<BookingDate> bookingDates) {
+        return bookingDates.map(BookingDate::getBookedDate).collectList().block();
+    }
+
+    @Test
+    @DisplayName("A range is expanded to its nights, the last night is the upper bound minus a day")
+    public void findBookingDatesTest() {
+        returnRanges(range(7L, 2L, day, day.plusDays(3)));
+
+        assertEquals(List.of(new BookingDate(7L, 2L, day), new BookingDate(7L, 2L, day.plusDays(1)), new BookingDate(7L, 2L, day.plusDays(2))),
+                     storage.findBookingDates(7L).collectList().block());
+    }
+
+    @Test
+    @DisplayName("The nights of the ranges which overlap the query are cut to the queried dates")
+    public void findBookedDatesTest() {
+        returnRanges(range(1L, 1L, day.minusDays(2), day.plusDays(1)),
+                     range(2L, 1L, day.plusDays(2), day.plusDays(3)),
+                     range(3L, 1L, day.plusDays(4), day.plusDays(7)));
+
+        assertEquals(List.of(day, day.plusDays(2), day.plusDays(4), day.plusDays(5)),
+                     getNights(storage.findBookedDates(1L, day, day.plusDays(5))));
+        verify(spec).bind("siteId", 1L);
+        verify(spec).bind("start", day);
+        verify(spec).bind("end", day.plusDays(5));
+    }
+
+    @Test
+    @DisplayName("A one night query gets the night of the range around it")
+    public void findBookedDatesOfOneNightTest() {
+        returnRanges(range(1L, 3L, day.minusDays(1), day.plusDays(2)));
+
+        assertEquals(List.of(day), getNights(storage.findBookedDates(day, day)));
+    }
+
+    @Test
+    @DisplayName("An update writes the range from the first to the last night of the booking after the update")
+    @SuppressWarnings("unchecked")
+    public void updateTest() {
+        final FetchSpec<Map<String, Object>> fetchSpec = mock(FetchSpec.class);
+        when(spec.fetch()).thenReturn(fetchSpec);
+        when(fetchSpec.rowsUpdated()).thenReturn(Mono.just(1));
+
+        //the night before is dropped and a night after is added, the booking keeps the nights in between
+        storage.update(List.of(new BookingDate(5L, 2L, day.plusDays(1)), new BookingDate(5L, 2L, day.plusDays(2)), new BookingDate(5L, 2L, day.plusDays(3))),
+                       List.of(new BookingDate(5L, 2L, day)),
+                       List.of(new BookingDate(5L, 2L, day.plusDays(3))))
+            .block();
+
+        verify(spec).bind("bookingId", 5L);
+        verify(spec).bind("siteId", 2L);
+        verify(spec).bind("first", day.plusDays(1));
+        verify(spec).bind("last", day.plusDays(3));
+    }
+}
@@ -0,0 +1,216 @@
+package com.campsite.booking.service;
+
+import com.campsite.booking.entity.BookingDate;
+import com.campsite.booking.entity.Site;
+import com.campsite.booking.repository.BookingDateStorage;
+import com.campsite.booking.repository.SiteRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.spi.ConnectionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ClusterSyncTest {
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final LocalDate night = LocalDate.now().plusDays(5);
+
+    private SiteRepository siteRepository;
+    private BookingDateStorage bookingDateStorage;
+    private BookingCache bookingCache;
+    private AvailabilityIndex availabilityIndex;
+    //the instance which receives the notifications, and the one which sends them
+    private ClusterSync sync;
+    private ClusterSync other;
+
+    @BeforeEach
+    public void setUp() {
+        siteRepository = mock(SiteRepository.class);
+        bookingDateStorage = mock(BookingDateStorage.class);
+        bookingCache = mock(BookingCache.class);
+        when(siteRepository.findAll(any(Sort.class))).thenReturn(Flux.just(new Site(1L, "Site 1"), new Site(2L, "Site 2")));
+        when(bookingDateStorage.findBookedDates(any(LocalDate.class), any(LocalDate.class))).thenReturn(Flux.empty());
+        availabilityIndex = new AvailabilityIndex(siteRepository, bookingDateStorage, new AvailabilityChangeFeed(16), 128, true);
+        availabilityIndex.rebuild().block();
+        sync = create();
+        other = create();
+    }
+
+    private ClusterSync create() {
+        return new ClusterSync(availabilityIndex, bookingCache, bookingDateStorage, mock(DatabaseClient.class), mock(ConnectionFactory.class),
+                               objectMapper, "booking_changes", Duration.ofSeconds(30));
+    }
+
+    private static Notification notification(final String payload) {
+        Notification notification = mock(Notification.class);
+        when(notification.getParameter()).thenReturn(payload);
+        return notification;
+    }
+
+    private boolean isBooked(final Long siteId) {
+        return !availabilityIndex.isAvailable(siteId, night, night);
+    }
+
+    @Test
+    @DisplayName("The booked nights of a notification are read again and patched in the index, the booking is dropped from the cache")
+    public void applyTest() {
+        UUID bookingId = UUID.randomUUID();
+        when(bookingDateStorage.findBookedDates(1L, night, night)).thenReturn(Flux.just(new BookingDate(3L, 1L, night)));
+
+        sync.apply(notification(other.getPayload(List.of(), List.of(new BookingDate(3L, 1L, night)), bookingId))).block();
+
+        assertTrue(isBooked(1L));
+        assertFalse(isBooked(2L));
+        verify(bookingCache).invalidate(bookingId);
+        verify(bookingDateStorage).findBookedDates(1L, night, night);
+    }
+
+    @Test
+    @DisplayName("A notification which arrives after a later commit leaves the nights as they are on the primary")
+    public void outOfOrderNotificationTest() {
+        //another instance booked the night, then a third one cancelled it: the booking arrives last
+        when(bookingDateStorage.findBookedDates(1L, night, night)).thenReturn(Flux.empty());
+        sync.apply(notification(other.getPayload(List.of(), List.of(new BookingDate(3L, 1L, night)), null))).block();
+        assertFalse(isBooked(1L));
+
+        //the night was cancelled then booked again: the cancellation arrives last
+        when(bookingDateStorage.findBookedDates(1L, night, night)).thenReturn(Flux.just(new BookingDate(4L, 1L, night)));
+        sync.apply(notification(other.getPayload(List.of(new BookingDate(3L, 1L, night)), List.of(), UUID.randomUUID()))).block();
+        assertTrue(isBooked(1L));
+    }
+
+    @Test
+    @DisplayName("A commit of this instance applied between the read of the nights and their patch is not overwritten, the nights are read again")
+    public void localCommitDuringReloadTest() {
+        //another instance cancelled the night, this instance booked it again and applied it while the night was read
+        when(bookingDateStorage.findBookedDates(1L, night, night))
+            .thenAnswer(invocation -> {
+                availabilityIndex.apply(List.of(), List.of(new BookingDate(5L, 1L, night)));
+                return Flux.empty();
+            })
+            .thenReturn(Flux.just(new BookingDate(5L, 1L, night)));
+
+        sync.apply(notification(other.getPayload(List.of(new BookingDate(3L, 1L, night)), List.of(), UUID.randomUUID()))).block();
+
+        assertTrue(isBooked(1L));
+        verify(bookingDateStorage, times(2)).findBookedDates(1L, night, night);
+    }
+
+    @Test
+    @DisplayName("The notifications of the instance itself are skipped")
+    public void ownNotificationTest() {
+        sync.apply(notification(sync.getPayload(List.of(), List.of(new BookingDate(3L, 1L, night)), UUID.randomUUID()))).block();
+
+        assertFalse(isBooked(1L));
+        verify(bookingDateStorage, never()).findBookedDates(anyLong(), any(LocalDate.class), any(LocalDate.class));
+        verify(bookingCache, never()).invalidate(any(UUID.class));
+    }
+
+    @Test
+    @DisplayName("A malformed notification is skipped")
+    public void malformedNotificationTest() {
+        sync.apply(notification("{not json")).block();
+        sync.apply(notification("{\"origin\": \"x\", \"booked\": {\"1\": [\"not a date\"]}}")).block();
+
+        assertFalse(isBooked(1L));
+        verify(bookingDateStorage, never()).findBookedDates(anyLong(), any(LocalDate.class), any(LocalDate.class));
+    }
+
+    @Test
+    @DisplayName("A change too large for a notification makes the other instances rebuild their index and clear their cache")
+    public void oversizedPayloadTest() throws Exception {
+        List<BookingDate> bookedDates = LocalDate.now().datesUntil(LocalDate.now().plusDays(100))
+            .flatMap(date -> LongStream.rangeClosed(1, 20).mapToObj(site -> new BookingDate(null, site, date)))
+            .collect(Collectors.toList());
+        String payload = other.getPayload(List.of(), bookedDates, null);
+
+        assertTrue(payload.length() < 8000);
+        assertTrue(objectMapper.readValue(payload, ClusterSync.Change.class).isResync());
+
+        sync.apply(notification(payload)).block();
+
+        verify(bookingCache).invalidateAll();
+        verify(siteRepository, times(2)).findAll(any(Sort.class));
+        verify(bookingDateStorage, never()).findBookedDates(anyLong(), any(LocalDate.class), any(LocalDate.class));
+        assertEquals(0, availabilityIndex.getBookedNights());
+    }
+
+    @Test
+    @DisplayName("The nights of all the sites of a change are read, from the first to the last night of each site")
+    public void severalSitesTest() {
+        LocalDate last = night.plusDays(2);
+        when(bookingDateStorage.findBookedDates(eq(1L), any(LocalDate.class), any(LocalDate.class)))
+            .thenReturn(Flux.just(new BookingDate(3L, 1L, last)));
+        when(bookingDateStorage.findBookedDates(eq(2L), any(LocalDate.class), any(LocalDate.class)))
+            .thenReturn(Flux.just(new BookingDate(4L, 2L, night)));
+
+        sync.apply(notification(other.getPayload(List.of(new BookingDate(3L, 1L, night)),
+                                                 List.of(new BookingDate(3L, 1L, last), new BookingDate(4L, 2L, night)),
+                                                 null))).block();
+
+        verify(bookingDateStorage).findBookedDates(1L, night, last);
+        verify(bookingDateStorage).findBookedDates(2L, night, night);
+        assertFalse(isBooked(1L));
+        assertTrue(availabilityIndex.getAvailableDates(1L, last, last).isEmpty());
+        assertTrue(isBooked(2L));
+    }
+
+    @Test
+    @DisplayName("With the cluster sync, the index is not built at startup: the listener builds it once it listens")
+    public void noStartupBuildTest() {
+        availabilityIndex.onApplicationReady();
+
+        verify(siteRepository, times(1)).findAll(any(Sort.class));
+    }
+
+    @Test
+    @DisplayName("Rebuilds which overlap replay each the changes made while they load, whichever of them is installed last")
+    public void overlappingRebuildsTest() throws Exception {
+        Sinks.Empty<Void> first = Sinks.empty();
+        Sinks.Empty<Void> second = Sinks.empty();
+        when(bookingDateStorage.findBookedDates(any(LocalDate.class), any(LocalDate.class)))
+            .thenReturn(Flux.<BookingDate>empty().delaySubscription(first.asMono()))
+            .thenReturn(Flux.<BookingDate>empty().delaySubscription(second.asMono()));
+        //a roll and a resync, both loading
+        CompletableFuture<Void> roll = availabilityIndex.rebuild().toFuture();
+        CompletableFuture<Void> resync = availabilityIndex.rebuild().toFuture();
+
+        availabilityIndex.apply(List.of(), List.of(new BookingDate(3L, 1L, night)));
+        second.tryEmitEmpty();
+        resync.get(5, TimeUnit.SECONDS);
+        assertTrue(isBooked(1L));
+
+        //the first one, installed last, has the changes made before and after the other one was installed
+        availabilityIndex.apply(List.of(), List.of(new BookingDate(4L, 2L, night)));
+        first.tryEmitEmpty();
+        roll.get(5, TimeUnit.SECONDS);
+        assertTrue(isBooked(1L));
+        assertTrue(isBooked(2L));
+    }
+}